@@ -0,0 +1,13 @@
+package org.jboss.seam.security;
+
+/**
+ * Thrown if an authentication attempt is rejected without the user's credentials being verified, for
+ * example because too many authentication attempts are already in progress
+ */
+public class LoginRejectedException extends AuthenticationException {
+    private static final long serialVersionUID = 2932064917163538651L;
+
+    public LoginRejectedException(String message) {
+        super(message);
+    }
+}
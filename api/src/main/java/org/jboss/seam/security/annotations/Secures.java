@@ -13,4 +13,11 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Secures {
+    /**
+     * If true, the decision made by the authorizer method is remembered for the rest of the current request,
+     * keyed by the values of its security parameter bindings.  Only authorizers whose result depends solely on
+     * the current user's security state and their bound parameters should be declared cacheable.  Cached
+     * decisions are discarded whenever the user logs in or out, or their roles or groups change.
+     */
+    boolean cacheable() default false;
 }
@@ -0,0 +1,47 @@
+package org.jboss.seam.security.events;
+
+import java.lang.annotation.Annotation;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This event may be used to perform many authorization checks at once, for example to decide which
+ * items of a menu should be rendered.  The constructor should be provided with a list of security
+ * binding sets, each containing one or more annotation literal values representing the security
+ * binding types to be checked.  Each distinct security binding is only checked once per event, no matter
+ * how many of the sets contain it.
+ * <p/>
+ * After firing the event, getResults() may be used to determine which checks were successful; the bit
+ * at index i is set if every security binding in the i-th binding set passed.
+ * <p/>
+ * WARNING - This event should only be fired and observed synchronously.
+ * Unpredictable results may occur otherwise.
+ */
+public class BatchAuthorizationCheckEvent {
+    private List<? extends Collection<? extends Annotation>> bindingSets;
+    private BitSet results = new BitSet();
+
+    public BatchAuthorizationCheckEvent(List<? extends Collection<? extends Annotation>> bindingSets) {
+        this.bindingSets = bindingSets;
+    }
+
+    public List<? extends Collection<? extends Annotation>> getBindingSets() {
+        return bindingSets;
+    }
+
+    public void setResults(BitSet results) {
+        this.results = results;
+    }
+
+    public BitSet getResults() {
+        return results;
+    }
+
+    /**
+     * Returns true if every security binding in the binding set at the specified index passed
+     */
+    public boolean isPassed(int index) {
+        return results.get(index);
+    }
+}
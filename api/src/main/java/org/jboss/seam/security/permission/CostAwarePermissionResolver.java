@@ -0,0 +1,25 @@
+package org.jboss.seam.security.permission;
+
+/**
+ * A permission resolver that declares how expensive its permission checks are, and which targets it is able
+ * to resolve permissions for.  Permission checks are routed only to the resolvers that support the class of
+ * the target, cheapest first, so that a check granted by a cheap resolver never reaches the more expensive
+ * ones.  Resolvers that don't implement this interface are consulted for every target, with the default cost.
+ */
+public interface CostAwarePermissionResolver extends PermissionResolver {
+    /**
+     * The cost of resolvers that don't declare one
+     */
+    int DEFAULT_COST = 100;
+
+    /**
+     * Returns the relative cost of this resolver's permission checks; the result must not change
+     */
+    int getCost();
+
+    /**
+     * Returns true if this resolver may grant permissions for targets of the specified class; the result must
+     * only depend on the class
+     */
+    boolean supports(Class<?> targetClass);
+}
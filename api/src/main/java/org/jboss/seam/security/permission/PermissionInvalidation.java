@@ -0,0 +1,59 @@
+package org.jboss.seam.security.permission;
+
+import java.io.Serializable;
+
+/**
+ * Records that the permissions granted on a resource have changed, either for a single recipient or, if the
+ * recipient is null, for every recipient.
+ */
+public final class PermissionInvalidation implements Serializable {
+    private static final long serialVersionUID = -1754512281916416503L;
+
+    private final String resource;
+    private final String recipient;
+
+    /**
+     * @param resource  The identifier of the resource, as determined by the IdentifierPolicy
+     * @param recipient The name of the user, role or group whose permissions have changed, or null for all
+     */
+    public PermissionInvalidation(String resource, String recipient) {
+        if (resource == null) throw new IllegalArgumentException("resource must not be null");
+        this.resource = resource;
+        this.recipient = recipient;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Returns true if this invalidation also covers the specified one
+     */
+    public boolean covers(PermissionInvalidation other) {
+        return resource.equals(other.resource) && (recipient == null || recipient.equals(other.recipient));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PermissionInvalidation)) return false;
+
+        PermissionInvalidation other = (PermissionInvalidation) obj;
+        return resource.equals(other.resource) &&
+                (recipient == null ? other.recipient == null : recipient.equals(other.recipient));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * resource.hashCode() + (recipient != null ? recipient.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionInvalidation[" + resource + "," + recipient + "]";
+    }
+}
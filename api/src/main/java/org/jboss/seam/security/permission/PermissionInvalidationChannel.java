@@ -0,0 +1,32 @@
+package org.jboss.seam.security.permission;
+
+import java.util.Collection;
+
+/**
+ * Carries permission invalidations between the nodes of a cluster, so that each node can discard the
+ * permission decisions it has cached for resources whose permissions were changed on another node.
+ * Implementations may deliver invalidations asynchronously, and may coalesce and batch them.
+ */
+public interface PermissionInvalidationChannel {
+    /**
+     * Receives the invalidations published by other nodes
+     */
+    interface Listener {
+        void invalidated(Collection<PermissionInvalidation> invalidations);
+    }
+
+    /**
+     * Starts delivering the invalidations published by other nodes to the specified listener
+     */
+    void start(Listener listener);
+
+    /**
+     * Publishes an invalidation to the other nodes
+     */
+    void publish(PermissionInvalidation invalidation);
+
+    /**
+     * Stops delivering invalidations, and releases any resources held by the channel
+     */
+    void stop();
+}
@@ -0,0 +1,21 @@
+package org.jboss.seam.security.permission;
+
+import java.util.Collection;
+
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.User;
+
+/**
+ * A permission store that can decide whether a permission has been granted without listing the permissions
+ * of the target, e.g. with a single query that only matches the records of the user, their roles and their
+ * groups.
+ */
+public interface QueryablePermissionStore extends PermissionStore {
+    /**
+     * Returns true if the action has been granted on the target to the specified user, or to any of the
+     * specified roles or groups
+     */
+    boolean hasPermission(Object target, String action, User user, Collection<Role> roles,
+                          Collection<Group> groups);
+}
@@ -0,0 +1,384 @@
+package org.jboss.seam.security;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+import javax.security.auth.spi.LoginModule;
+
+import org.jboss.seam.security.events.LoginFailedEvent;
+import org.jboss.seam.security.jaas.JaasAuthenticator;
+import org.jboss.seam.security.management.IdmAuthenticator;
+import org.jboss.seam.security.permission.PermissionCacheControl;
+import org.jboss.seam.security.permission.PermissionDecisionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.picketlink.idm.api.AttributesManager;
+import org.picketlink.idm.api.Credential;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.IdentitySession;
+import org.picketlink.idm.api.RelationshipManager;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.RoleManager;
+import org.picketlink.idm.impl.api.PasswordCredential;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+import org.picketlink.idm.impl.api.model.SimpleRole;
+import org.picketlink.idm.impl.api.model.SimpleRoleType;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+
+/**
+ * A microbenchmark of the authenticator path of a login; IdentityImpl.login() through authenticate(), the
+ * Authenticator and postAuthenticate().  Each benchmark thread represents its own session, which logs in and is
+ * then reset for the next invocation.
+ * <p/>
+ * This is not an end-to-end login benchmark.  No container is booted; the identity is wired by hand and its
+ * BeanManager is a stub that discards every event except LoginFailedEvent, so event delivery, observer
+ * resolution and contextual proxies are not measured.  The identity store used by IdmAuthenticator is held in
+ * memory.  LoginBenchmark measures the complete login in a container.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticatorBenchmark {
+    private static final String USERNAME = "shane";
+    private static final String PASSWORD = "password";
+    static final String JAAS_CONFIG_NAME = "benchmark";
+
+    /**
+     * Grants the configured number of roles, in the way a typical application authenticator does
+     */
+    public static class RoleGrantingAuthenticator extends BaseAuthenticator {
+        Identity identity;
+        Credentials credentials;
+        int roleCount;
+
+        public void authenticate() {
+            if (!PASSWORD.equals(((PasswordCredential) credentials.getCredential()).getValue())) {
+                setStatus(AuthenticationStatus.FAILURE);
+                return;
+            }
+
+            for (int i = 0; i < roleCount; i++) {
+                identity.addRole("role" + i, "group" + (i % 10), "GROUP");
+            }
+
+            setUser(new SimpleUser(credentials.getUsername()));
+            setStatus(AuthenticationStatus.SUCCESS);
+        }
+    }
+
+    /**
+     * JaasAuthenticator doesn't provide a User, so this subclass provides one from the credentials along with
+     * the configured number of roles
+     */
+    public static class RoleGrantingJaasAuthenticator extends JaasAuthenticator {
+        Identity grantee;
+        Credentials userCredentials;
+        int roleCount;
+
+        @Override
+        public void postAuthenticate() {
+            for (int i = 0; i < roleCount; i++) {
+                grantee.addRole("role" + i, "group" + (i % 10), "GROUP");
+            }
+
+            setUser(new SimpleUser(userCredentials.getUsername()));
+        }
+    }
+
+    public static class InMemoryLoginModule implements LoginModule {
+        private Subject subject;
+        private CallbackHandler callbackHandler;
+        private String username;
+
+        public void initialize(Subject subject, CallbackHandler callbackHandler, Map<String, ?> sharedState,
+                               Map<String, ?> options) {
+            this.subject = subject;
+            this.callbackHandler = callbackHandler;
+        }
+
+        public boolean login() throws LoginException {
+            NameCallback name = new NameCallback("username");
+            PasswordCallback password = new PasswordCallback("password", false);
+
+            try {
+                callbackHandler.handle(new Callback[]{name, password});
+            } catch (Exception ex) {
+                throw new LoginException(ex.getMessage());
+            }
+
+            if (password.getPassword() == null || !PASSWORD.equals(new String(password.getPassword()))) {
+                throw new FailedLoginException();
+            }
+
+            username = name.getName();
+            return true;
+        }
+
+        public boolean commit() {
+            final String name = username;
+            subject.getPrincipals().add(new Principal() {
+                public String getName() {
+                    return name;
+                }
+            });
+            return true;
+        }
+
+        public boolean abort() {
+            return true;
+        }
+
+        public boolean logout() {
+            subject.getPrincipals().clear();
+            return true;
+        }
+    }
+
+    /**
+     * A single session, with its own identity and credentials
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        @Param({"custom", "jaas", "idm"})
+        String authenticator;
+
+        @Param({"1", "50", "500"})
+        int roleCount;
+
+        IdentityImpl identity;
+        CredentialsImpl credentials;
+        Authenticator selectedAuthenticator;
+
+        @Setup
+        public void setup() throws Exception {
+            BeanManager beanManager = createBeanManager();
+
+            credentials = new CredentialsImpl();
+            credentials.manager = beanManager;
+            eventTarget.set(credentials);
+
+            identity = new IdentityImpl() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Authenticator lookupAuthenticator() {
+                    return selectedAuthenticator;
+                }
+            };
+
+            inject(identity, "beanManager", beanManager);
+            inject(identity, "credentials", credentials);
+            inject(identity, "requestSecurityState", instanceOf(new RequestSecurityState()));
+            inject(identity, "authorizationDecisionCache", instanceOf(new AuthorizationDecisionCache()));
+            inject(identity, "permissionDecisionCache", instanceOf(new PermissionDecisionCache()));
+            inject(identity, "permissionCacheControl", new PermissionCacheControl());
+            inject(identity, "admissionControl", new LoginAdmissionControl());
+            inject(identity, "failureTracker", new LoginFailureTracker());
+
+            if ("custom".equals(authenticator)) {
+                RoleGrantingAuthenticator custom = new RoleGrantingAuthenticator();
+                custom.identity = identity;
+                custom.credentials = credentials;
+                custom.roleCount = roleCount;
+                selectedAuthenticator = custom;
+            } else if ("jaas".equals(authenticator)) {
+                installJaasConfiguration();
+
+                RoleGrantingJaasAuthenticator jaas = new RoleGrantingJaasAuthenticator();
+                jaas.grantee = identity;
+                jaas.userCredentials = credentials;
+                jaas.roleCount = roleCount;
+                jaas.setJaasConfigName(JAAS_CONFIG_NAME);
+                inject(jaas, "identity", identity);
+                inject(jaas, "credentials", credentials);
+                inject(jaas, "manager", beanManager);
+                selectedAuthenticator = jaas;
+            } else {
+                IdmAuthenticator idm = new IdmAuthenticator();
+                inject(idm, "identitySession", createIdentitySession(roleCount));
+                inject(idm, "credentials", credentials);
+                inject(idm, "identity", identity);
+                selectedAuthenticator = idm;
+            }
+        }
+    }
+
+    /**
+     * The credentials to notify of login failures fired on the current thread
+     */
+    private static final ThreadLocal<CredentialsImpl> eventTarget = new ThreadLocal<CredentialsImpl>();
+
+    @Benchmark
+    @Threads(1)
+    public String login(Session session) {
+        return doLogin(session);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String loginContended(Session session) {
+        return doLogin(session);
+    }
+
+    private static String doLogin(Session session) {
+        session.identity.unAuthenticate();
+        session.credentials.setUsername(USERNAME);
+        session.credentials.setPassword(PASSWORD);
+
+        String result = session.identity.login();
+        if (!Identity.RESPONSE_LOGIN_SUCCESS.equals(result)) {
+            throw new IllegalStateException("Login failed: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a stub bean manager that discards the events fired during login, except for LoginFailedEvent which
+     * is delivered to the session's credentials
+     */
+    private static BeanManager createBeanManager() {
+        return (BeanManager) Proxy.newProxyInstance(AuthenticatorBenchmark.class.getClassLoader(),
+                new Class<?>[]{BeanManager.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("fireEvent".equals(method.getName()) && args[0] instanceof LoginFailedEvent) {
+                    CredentialsImpl credentials = eventTarget.get();
+                    if (credentials != null) {
+                        credentials.loginFailed((LoginFailedEvent) args[0]);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    static void installJaasConfiguration() {
+        Configuration.setConfiguration(new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                return new AppConfigurationEntry[]{new AppConfigurationEntry(InMemoryLoginModule.class.getName(),
+                        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, Collections.<String, Object>emptyMap())};
+            }
+
+            @Override
+            public void refresh() {
+            }
+        });
+    }
+
+    /**
+     * Creates an identity session backed by an in-memory store, holding a single user with the specified
+     * number of roles and a small group hierarchy
+     */
+    private static IdentitySession createIdentitySession(int roleCount) {
+        final List<Role> roles = new ArrayList<Role>(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(new SimpleRole(new SimpleRoleType("role" + i), new SimpleUser(USERNAME),
+                    new SimpleGroup("group" + (i % 10), "GROUP")));
+        }
+
+        final Map<String, List<Group>> parentGroups = new HashMap<String, List<Group>>();
+        parentGroups.put("team", Collections.<Group>singletonList(new SimpleGroup("department", "GROUP")));
+        parentGroups.put("department", Collections.<Group>singletonList(new SimpleGroup("company", "GROUP")));
+
+        final AttributesManager attributesManager = stub(AttributesManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("validateCredentials".equals(method.getName())) {
+                    Credential[] credentials = (Credential[]) args[1];
+                    return credentials.length == 1 && credentials[0] instanceof PasswordCredential &&
+                            PASSWORD.equals(((PasswordCredential) credentials[0]).getValue());
+                }
+                return null;
+            }
+        });
+
+        final RoleManager roleManager = stub(RoleManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "findRoles".equals(method.getName()) ? roles : null;
+            }
+        });
+
+        final RelationshipManager relationshipManager = stub(RelationshipManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("findAssociatedGroups".equals(method.getName())) {
+                    if (args[0] instanceof Group) {
+                        List<Group> parents = parentGroups.get(((Group) args[0]).getName());
+                        return parents != null ? parents : Collections.<Group>emptyList();
+                    }
+                    return Collections.<Group>singletonList(new SimpleGroup("team", "GROUP"));
+                }
+                return null;
+            }
+        });
+
+        return stub(IdentitySession.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getAttributesManager".equals(method.getName())) return attributesManager;
+                if ("getRoleManager".equals(method.getName())) return roleManager;
+                if ("getRelationshipManager".equals(method.getName())) return relationshipManager;
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(AuthenticatorBenchmark.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Instance<T> instanceOf(final T instance) {
+        return (Instance<T>) Proxy.newProxyInstance(AuthenticatorBenchmark.class.getClassLoader(),
+                new Class<?>[]{Instance.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("get".equals(method.getName())) return instance;
+                if ("isUnsatisfied".equals(method.getName()) || "isAmbiguous".equals(method.getName())) return false;
+                return null;
+            }
+        });
+    }
+
+    private static void inject(Object target, String fieldName, Object value) throws Exception {
+        for (Class<?> cls = target.getClass(); cls != null; cls = cls.getSuperclass()) {
+            try {
+                Field field = cls.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException ex) {
+                // Keep looking in the superclass
+            }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+}
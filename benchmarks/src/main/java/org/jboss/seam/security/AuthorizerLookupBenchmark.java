@@ -0,0 +1,264 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.AnnotatedType;
+
+import org.jboss.seam.security.SecurityExtension.MethodAuthorizer;
+import org.jboss.seam.security.annotations.Secures;
+import org.jboss.seam.security.annotations.SecurityBindingType;
+import org.jboss.solder.reflection.annotated.AnnotatedTypeBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the authorizer stack lookup performed by the security interceptor against the
+ * HashMap-based lookup with synchronized registration that it replaced, for a warm table probed with a
+ * single target class, a warm table probed with several target classes, and the first (missing) lookups
+ * made against an empty table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthorizerLookupBenchmark {
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    public @interface Restricted {
+        String value();
+    }
+
+    public static class Authorizers {
+        public @Secures @Restricted("read") boolean canRead() {
+            return true;
+        }
+
+        public @Secures @Restricted("write") boolean canWrite() {
+            return true;
+        }
+    }
+
+    public static class SecuredBean {
+        public @Restricted("read") void read() {
+        }
+
+        public @Restricted("read") void list() {
+        }
+
+        public @Restricted("write") void write() {
+        }
+
+        public @Restricted("write") void delete() {
+        }
+    }
+
+    /**
+     * Subclasses of the secured bean, such as the container's proxies, which are looked up separately
+     */
+    public static class SecuredBeanA extends SecuredBean {
+    }
+
+    public static class SecuredBeanB extends SecuredBean {
+    }
+
+    public static class SecuredBeanC extends SecuredBean {
+    }
+
+    private static final Class<?>[] TARGET_CLASSES = {SecuredBean.class, SecuredBeanA.class, SecuredBeanB.class,
+            SecuredBeanC.class};
+
+    /**
+     * The lookup as it was performed before authorizer stacks were published through a concurrent
+     * dispatch table; unsynchronized HashMap probes, falling back to a synchronized registration.
+     */
+    static class LegacyAuthorizerTable {
+        private final SecurityExtension extension;
+
+        private final Map<Class<?>, Map<Method, Set<MethodAuthorizer>>> methodAuthorizers =
+                new HashMap<Class<?>, Map<Method, Set<MethodAuthorizer>>>();
+
+        LegacyAuthorizerTable(SecurityExtension extension) {
+            this.extension = extension;
+        }
+
+        Set<MethodAuthorizer> lookupAuthorizerStack(Method m, Class<?> targetClass) {
+            if (!methodAuthorizers.containsKey(targetClass) || !methodAuthorizers.get(targetClass).containsKey(m)) {
+                registerSecuredMethod(m, targetClass);
+            }
+
+            return methodAuthorizers.get(targetClass).get(m);
+        }
+
+        synchronized void registerSecuredMethod(Method method, Class<?> targetClass) {
+            if (!methodAuthorizers.containsKey(targetClass)) {
+                methodAuthorizers.put(targetClass, new HashMap<Method, Set<MethodAuthorizer>>());
+            }
+
+            Map<Method, Set<MethodAuthorizer>> authz = methodAuthorizers.get(targetClass);
+
+            if (!authz.containsKey(method)) {
+                authz.put(method, new HashSet<MethodAuthorizer>(
+                        Arrays.asList(extension.lookupAuthorizerStack(method, targetClass))));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MethodCursor {
+        private int next;
+        private int nextClass;
+
+        Method next(Method[] methods) {
+            Method m = methods[next];
+            next = (next + 1) % methods.length;
+            return m;
+        }
+
+        /**
+         * Returns the target class for the next method, moving on to another class once every method has been
+         * visited
+         */
+        Class<?> nextClass() {
+            if (next == 0) {
+                nextClass = (nextClass + 1) % TARGET_CLASSES.length;
+            }
+            return TARGET_CLASSES[nextClass];
+        }
+    }
+
+    /**
+     * Empty tables for every invocation, so that each lookup misses and registers the method's stack
+     */
+    @State(Scope.Thread)
+    public static class ColdTables {
+        SecurityExtension extension;
+        LegacyAuthorizerTable legacyTable;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            extension = createExtension();
+            legacyTable = new LegacyAuthorizerTable(extension);
+        }
+    }
+
+    private SecurityExtension extension;
+    private LegacyAuthorizerTable legacyTable;
+    private Method[] securedMethods;
+
+    @Setup
+    public void setup() {
+        extension = createExtension();
+        legacyTable = new LegacyAuthorizerTable(extension);
+        securedMethods = SecuredBean.class.getDeclaredMethods();
+
+        // Warm both tables so that only the steady state lookup is measured
+        for (Class<?> targetClass : TARGET_CLASSES) {
+            for (Method m : securedMethods) {
+                extension.lookupAuthorizerStack(m, targetClass);
+                legacyTable.lookupAuthorizerStack(m, targetClass);
+            }
+        }
+    }
+
+    static SecurityExtension createExtension() {
+        SecurityExtension extension = new SecurityExtension();
+
+        AnnotatedType<Authorizers> type = new AnnotatedTypeBuilder<Authorizers>().readFromType(Authorizers.class)
+                .create();
+        for (AnnotatedMethod<? super Authorizers> m : type.getMethods()) {
+            if (m.isAnnotationPresent(Secures.class)) {
+                extension.registerAuthorizer(m);
+            }
+        }
+        return extension;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object legacyLookup1Thread(MethodCursor cursor) {
+        return legacyTable.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object legacyLookup8Threads(MethodCursor cursor) {
+        return legacyTable.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object legacyLookup64Threads(MethodCursor cursor) {
+        return legacyTable.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object dispatchTableLookup1Thread(MethodCursor cursor) {
+        return extension.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object dispatchTableLookup8Threads(MethodCursor cursor) {
+        return extension.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object dispatchTableLookup64Threads(MethodCursor cursor) {
+        return extension.lookupAuthorizerStack(cursor.next(securedMethods), SecuredBean.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object legacyMixedClassLookup8Threads(MethodCursor cursor) {
+        Class<?> targetClass = cursor.nextClass();
+        return legacyTable.lookupAuthorizerStack(cursor.next(securedMethods), targetClass);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object dispatchTableMixedClassLookup8Threads(MethodCursor cursor) {
+        Class<?> targetClass = cursor.nextClass();
+        return extension.lookupAuthorizerStack(cursor.next(securedMethods), targetClass);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Threads(1)
+    public Object legacyColdMiss(ColdTables tables) {
+        return tables.legacyTable.lookupAuthorizerStack(securedMethods[0], SecuredBean.class);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Threads(1)
+    public Object dispatchTableColdMiss(ColdTables tables) {
+        return tables.extension.lookupAuthorizerStack(securedMethods[0], SecuredBean.class);
+    }
+}
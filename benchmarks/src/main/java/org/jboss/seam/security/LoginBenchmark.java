@@ -0,0 +1,367 @@
+package org.jboss.seam.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.jboss.seam.security.benchmark.model.IdentityObject;
+import org.jboss.seam.security.benchmark.model.IdentityObjectCredential;
+import org.jboss.seam.security.benchmark.model.IdentityObjectCredentialType;
+import org.jboss.seam.security.benchmark.model.IdentityObjectRelationship;
+import org.jboss.seam.security.benchmark.model.IdentityObjectRelationshipType;
+import org.jboss.seam.security.benchmark.model.IdentityObjectType;
+import org.jboss.seam.security.benchmark.model.IdentityRoleName;
+import org.jboss.seam.security.jaas.JaasAuthenticator;
+import org.jboss.seam.security.management.IdmAuthenticator;
+import org.jboss.solder.beanManager.BeanManagerProvider;
+import org.jboss.weld.context.bound.BoundLiteral;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.jboss.weld.context.bound.BoundSessionContext;
+import org.jboss.weld.environment.se.Weld;
+import org.jboss.weld.environment.se.WeldContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.picketlink.idm.impl.api.PasswordCredential;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+
+/**
+ * An end-to-end benchmark of a login, in a Weld SE container with an embedded H2 database.  Each invocation
+ * starts a new session and request, logs in with Identity.login() and then destroys the request and session, so
+ * the contextual instances, the events fired during login and their observers are all part of the measurement.
+ * <p/>
+ * IdmAuthenticator authenticates against JpaIdentityStore, with a user that has the configured number of roles
+ * and belongs to a small group hierarchy.  JaasAuthenticator uses an in-memory LoginModule, and both it and the
+ * custom BaseAuthenticator grant the configured number of roles themselves.
+ * <p/>
+ * AuthenticatorBenchmark measures the same authenticators without a container.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginBenchmark {
+    private static final String USERNAME = "shane";
+    private static final String PASSWORD = "password";
+
+    /**
+     * The number of roles granted by the custom and JAAS authenticators
+     */
+    @ApplicationScoped
+    public static class RoleSettings {
+        private int roleCount;
+
+        public int getRoleCount() {
+            return roleCount;
+        }
+
+        public void setRoleCount(int roleCount) {
+            this.roleCount = roleCount;
+        }
+    }
+
+    @RequestScoped
+    public static class CustomAuthenticator extends BaseAuthenticator {
+        @Inject
+        Identity identity;
+        @Inject
+        Credentials credentials;
+        @Inject
+        RoleSettings settings;
+
+        public void authenticate() {
+            if (!PASSWORD.equals(((PasswordCredential) credentials.getCredential()).getValue())) {
+                setStatus(AuthenticationStatus.FAILURE);
+                return;
+            }
+
+            for (int i = 0; i < settings.getRoleCount(); i++) {
+                identity.addRole("role" + i, "group" + (i % 10), "GROUP");
+            }
+
+            setUser(new SimpleUser(credentials.getUsername()));
+            setStatus(AuthenticationStatus.SUCCESS);
+        }
+    }
+
+    /**
+     * JaasAuthenticator doesn't provide a User, so this subclass provides one from the credentials along with
+     * the configured number of roles
+     */
+    @RequestScoped
+    public static class RoleGrantingJaasAuthenticator extends JaasAuthenticator {
+        @Inject
+        Identity grantee;
+        @Inject
+        Credentials userCredentials;
+        @Inject
+        RoleSettings settings;
+
+        public RoleGrantingJaasAuthenticator() {
+            setJaasConfigName(AuthenticatorBenchmark.JAAS_CONFIG_NAME);
+        }
+
+        @Override
+        public void postAuthenticate() {
+            for (int i = 0; i < settings.getRoleCount(); i++) {
+                grantee.addRole("role" + i, "group" + (i % 10), "GROUP");
+            }
+
+            setUser(new SimpleUser(userCredentials.getUsername()));
+        }
+    }
+
+    /**
+     * Provides the entity manager used by JpaIdentityStore
+     */
+    @ApplicationScoped
+    public static class EntityManagerProducer {
+        private EntityManagerFactory factory;
+
+        @PostConstruct
+        public void init() {
+            factory = Persistence.createEntityManagerFactory("benchmark");
+        }
+
+        @PreDestroy
+        public void close() {
+            factory.close();
+        }
+
+        public EntityManagerFactory getFactory() {
+            return factory;
+        }
+
+        @Produces
+        @RequestScoped
+        public EntityManager createEntityManager() {
+            return factory.createEntityManager();
+        }
+
+        public void closeEntityManager(@Disposes EntityManager entityManager) {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * JpaIdentityStore looks up its configuration with Solder's BeanManagerLocator, which has no provider for
+     * Weld SE of its own
+     */
+    public static class ContainerBeanManagerProvider implements BeanManagerProvider {
+        static volatile BeanManager beanManager;
+
+        public BeanManager getBeanManager() {
+            return beanManager;
+        }
+
+        public int getPrecedence() {
+            return 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Container {
+        @Param({"custom", "jaas", "idm"})
+        String authenticator;
+
+        @Param({"1", "50", "500"})
+        int roleCount;
+
+        Weld weld;
+        BoundSessionContext sessionContext;
+        BoundRequestContext requestContext;
+        Identity identity;
+        Credentials credentials;
+        Class<? extends Authenticator> authenticatorClass;
+
+        @Setup(Level.Trial)
+        public void boot() {
+            weld = new Weld();
+            WeldContainer container = weld.initialize();
+            ContainerBeanManagerProvider.beanManager = container.getBeanManager();
+
+            sessionContext = container.instance().select(BoundSessionContext.class, BoundLiteral.INSTANCE).get();
+            requestContext = container.instance().select(BoundRequestContext.class, BoundLiteral.INSTANCE).get();
+            identity = container.instance().select(Identity.class).get();
+            credentials = container.instance().select(Credentials.class).get();
+            container.instance().select(RoleSettings.class).get().setRoleCount(roleCount);
+
+            if ("custom".equals(authenticator)) {
+                authenticatorClass = CustomAuthenticator.class;
+            } else if ("jaas".equals(authenticator)) {
+                AuthenticatorBenchmark.installJaasConfiguration();
+                authenticatorClass = RoleGrantingJaasAuthenticator.class;
+            } else {
+                createIdentityStore(container.instance().select(EntityManagerProducer.class).get().getFactory(),
+                        roleCount);
+                authenticatorClass = IdmAuthenticator.class;
+            }
+
+            // Make sure the authenticator grants what it should before measuring it
+            doLogin(this, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void shutdown() {
+            weld.shutdown();
+            ContainerBeanManagerProvider.beanManager = null;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String login(Container container) {
+        return doLogin(container, false);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String loginContended(Container container) {
+        return doLogin(container, false);
+    }
+
+    private static String doLogin(Container container, boolean verify) {
+        Map<String, Object> session = new HashMap<String, Object>();
+        Map<String, Object> request = new HashMap<String, Object>();
+
+        container.sessionContext.associate(session);
+        container.sessionContext.activate();
+        container.requestContext.associate(request);
+        container.requestContext.activate();
+
+        try {
+            container.identity.setAuthenticatorClass(container.authenticatorClass);
+            container.credentials.setUsername(USERNAME);
+            container.credentials.setCredential(new PasswordCredential(PASSWORD));
+
+            String result = container.identity.login();
+            if (!Identity.RESPONSE_LOGIN_SUCCESS.equals(result)) {
+                throw new IllegalStateException("Login failed: " + result);
+            }
+
+            if (verify) {
+                int lastRole = container.roleCount - 1;
+                if (!container.identity.hasRole("role" + lastRole, "group" + (lastRole % 10), "GROUP")) {
+                    throw new IllegalStateException("The user's roles were not granted");
+                }
+                if (container.authenticatorClass == IdmAuthenticator.class &&
+                        !container.identity.inGroup("company", "GROUP")) {
+                    throw new IllegalStateException("The user's nested groups were not loaded");
+                }
+            }
+            return result;
+        } finally {
+            container.requestContext.invalidate();
+            container.requestContext.deactivate();
+            container.requestContext.dissociate(request);
+            container.sessionContext.invalidate();
+            container.sessionContext.deactivate();
+            container.sessionContext.dissociate(session);
+        }
+    }
+
+    /**
+     * Stores a user with the specified number of roles, which is a member of the group "team" in the hierarchy
+     * team, department, company
+     */
+    private static void createIdentityStore(EntityManagerFactory factory, int roleCount) {
+        EntityManager em = factory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+
+            IdentityObjectType userType = new IdentityObjectType();
+            userType.setName("USER");
+            em.persist(userType);
+
+            IdentityObjectType groupType = new IdentityObjectType();
+            groupType.setName("GROUP");
+            em.persist(groupType);
+
+            IdentityObjectRelationshipType membership = new IdentityObjectRelationshipType();
+            membership.setName("JBOSS_IDENTITY_MEMBERSHIP");
+            em.persist(membership);
+
+            IdentityObjectRelationshipType role = new IdentityObjectRelationshipType();
+            role.setName("JBOSS_IDENTITY_ROLE");
+            em.persist(role);
+
+            IdentityObject user = createIdentityObject(em, USERNAME, userType);
+
+            IdentityObjectCredentialType passwordType = new IdentityObjectCredentialType();
+            passwordType.setName("PASSWORD");
+            em.persist(passwordType);
+
+            IdentityObjectCredential password = new IdentityObjectCredential();
+            password.setIdentityObject(user);
+            password.setType(passwordType);
+            password.setValue(PASSWORD);
+            em.persist(password);
+
+            IdentityObject team = createIdentityObject(em, "team", groupType);
+            IdentityObject department = createIdentityObject(em, "department", groupType);
+            IdentityObject company = createIdentityObject(em, "company", groupType);
+            createRelationship(em, team, user, membership, null);
+            createRelationship(em, department, team, membership, null);
+            createRelationship(em, company, department, membership, null);
+
+            IdentityObject[] groups = new IdentityObject[Math.min(roleCount, 10)];
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = createIdentityObject(em, "group" + i, groupType);
+            }
+
+            for (int i = 0; i < roleCount; i++) {
+                IdentityRoleName roleName = new IdentityRoleName();
+                roleName.setName("role" + i);
+                em.persist(roleName);
+
+                createRelationship(em, groups[i % 10], user, role, roleName.getName());
+            }
+
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static IdentityObject createIdentityObject(EntityManager em, String name, IdentityObjectType type) {
+        IdentityObject identityObject = new IdentityObject();
+        identityObject.setName(name);
+        identityObject.setType(type);
+        em.persist(identityObject);
+        return identityObject;
+    }
+
+    private static void createRelationship(EntityManager em, IdentityObject from, IdentityObject to,
+                                           IdentityObjectRelationshipType type, String name) {
+        IdentityObjectRelationship relationship = new IdentityObjectRelationship();
+        relationship.setFrom(from);
+        relationship.setTo(to);
+        relationship.setRelationshipType(type);
+        relationship.setName(name);
+        em.persist(relationship);
+    }
+}
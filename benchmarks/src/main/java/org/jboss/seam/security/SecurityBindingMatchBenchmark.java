@@ -0,0 +1,182 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.util.Nonbinding;
+
+import org.jboss.seam.security.annotations.SecurityBindingType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares matching a security binding against an authorizer's binding using SecurityBindingKey with the
+ * reflective member-by-member comparison it replaced, for binding types with 0, 1 and 4 binding members.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecurityBindingMatchBenchmark {
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    public @interface NoMembers {
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    public @interface OneMember {
+        String value();
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    public @interface FourMembers {
+        String value();
+
+        String group();
+
+        int level();
+
+        boolean strict();
+
+        @Nonbinding String description() default "";
+    }
+
+    public static class Bindings {
+        @NoMembers
+        @OneMember("admin")
+        @FourMembers(value = "admin", group = "USERS", level = 3, strict = true)
+        public void authorizer() {
+        }
+
+        @NoMembers
+        @OneMember("admin")
+        @FourMembers(value = "admin", group = "USERS", level = 3, strict = true, description = "secured")
+        public void secured() {
+        }
+    }
+
+    /**
+     * The comparison performed by Authorizer.matchesBinding before binding keys were introduced
+     */
+    static class LegacyBindingMatcher {
+        private final Annotation binding;
+        private final Map<Method, Object> memberValues = new HashMap<Method, Object>();
+
+        LegacyBindingMatcher(Annotation binding) throws Exception {
+            this.binding = binding;
+            for (Method m : binding.annotationType().getDeclaredMethods()) {
+                if (m.isAnnotationPresent(Nonbinding.class))
+                    continue;
+                memberValues.put(m, m.invoke(binding));
+            }
+        }
+
+        boolean matchesBinding(Annotation annotation) throws InvocationTargetException, IllegalAccessException {
+            if (!annotation.annotationType().equals(binding.annotationType())) {
+                return false;
+            }
+
+            for (Method m : annotation.annotationType().getDeclaredMethods()) {
+                if (m.isAnnotationPresent(Nonbinding.class))
+                    continue;
+
+                if (!memberValues.containsKey(m)) {
+                    return false;
+                }
+
+                Object value = m.invoke(annotation);
+                if (!memberValues.get(m).equals(value)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private Annotation noMembers;
+    private Annotation oneMember;
+    private Annotation fourMembers;
+
+    private LegacyBindingMatcher legacyNoMembers;
+    private LegacyBindingMatcher legacyOneMember;
+    private LegacyBindingMatcher legacyFourMembers;
+
+    private final SecurityBindingKey.Factory bindingKeys = new SecurityBindingKey.Factory();
+
+    private SecurityBindingKey noMembersKey;
+    private SecurityBindingKey oneMemberKey;
+    private SecurityBindingKey fourMembersKey;
+
+    @Setup
+    public void setup() throws Exception {
+        Method authorizer = Bindings.class.getMethod("authorizer");
+        Method secured = Bindings.class.getMethod("secured");
+
+        legacyNoMembers = new LegacyBindingMatcher(authorizer.getAnnotation(NoMembers.class));
+        legacyOneMember = new LegacyBindingMatcher(authorizer.getAnnotation(OneMember.class));
+        legacyFourMembers = new LegacyBindingMatcher(authorizer.getAnnotation(FourMembers.class));
+
+        noMembersKey = bindingKeys.create(authorizer.getAnnotation(NoMembers.class));
+        oneMemberKey = bindingKeys.create(authorizer.getAnnotation(OneMember.class));
+        fourMembersKey = bindingKeys.create(authorizer.getAnnotation(FourMembers.class));
+
+        noMembers = secured.getAnnotation(NoMembers.class);
+        oneMember = secured.getAnnotation(OneMember.class);
+        fourMembers = secured.getAnnotation(FourMembers.class);
+    }
+
+    @Benchmark
+    public boolean legacyNoMembers() throws Exception {
+        return legacyNoMembers.matchesBinding(noMembers);
+    }
+
+    @Benchmark
+    public boolean legacyOneMember() throws Exception {
+        return legacyOneMember.matchesBinding(oneMember);
+    }
+
+    @Benchmark
+    public boolean legacyFourMembers() throws Exception {
+        return legacyFourMembers.matchesBinding(fourMembers);
+    }
+
+    @Benchmark
+    public boolean bindingKeyNoMembers() {
+        return noMembersKey.equals(bindingKeys.create(noMembers));
+    }
+
+    @Benchmark
+    public boolean bindingKeyOneMember() {
+        return oneMemberKey.equals(bindingKeys.create(oneMember));
+    }
+
+    @Benchmark
+    public boolean bindingKeyFourMembers() {
+        return fourMembersKey.equals(bindingKeys.create(fourMembers));
+    }
+}
@@ -0,0 +1,59 @@
+package org.jboss.seam.security.benchmark.model;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+
+import org.jboss.seam.security.annotations.management.EntityType;
+import org.jboss.seam.security.annotations.management.IdentityEntity;
+import org.jboss.seam.security.annotations.management.IdentityProperty;
+import org.jboss.seam.security.annotations.management.PropertyType;
+
+/**
+ * Users and groups
+ */
+@Entity
+@IdentityEntity(EntityType.IDENTITY_OBJECT)
+public class IdentityObject implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @IdentityProperty(PropertyType.NAME)
+    private String name;
+
+    @ManyToOne
+    @IdentityProperty(PropertyType.TYPE)
+    @JoinColumn(name = "IDENTITY_OBJECT_TYPE_ID")
+    private IdentityObjectType type;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public IdentityObjectType getType() {
+        return type;
+    }
+
+    public void setType(IdentityObjectType type) {
+        this.type = type;
+    }
+}
@@ -21,7 +21,6 @@ import static com.google.common.collect.Iterables.getOnlyElement;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
-import java.util.Collection;
 import java.util.List;
 
 import javax.enterprise.context.SessionScoped;
@@ -38,6 +37,7 @@ import org.jboss.seam.security.BaseAuthenticator;
 import org.jboss.seam.security.Identity;
 import org.jboss.seam.security.events.DeferredAuthenticationEvent;
 import org.jboss.seam.security.external.oauth.api.OAuthAuthenticator;
+import org.jboss.seam.security.management.MembershipLoader;
 import org.jboss.seam.security.management.picketlink.IdentitySessionProducer;
 import org.jboss.seam.social.MultiServicesManager;
 import org.jboss.seam.social.SeamSocialExtension;
@@ -46,10 +46,7 @@ import org.jboss.seam.social.oauth.OAuthService;
 import org.jboss.seam.social.oauth.OAuthSession;
 import org.jboss.solder.core.Requires;
 import org.jboss.solder.logging.Logger;
-import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.IdentitySession;
-import org.picketlink.idm.api.Role;
-import org.picketlink.idm.api.RoleType;
 import org.picketlink.idm.api.User;
 import org.picketlink.idm.common.exception.FeatureNotSupportedException;
 import org.picketlink.idm.common.exception.IdentityException;
@@ -252,18 +249,7 @@ public class OAuthAuthenticatorImpl extends BaseAuthenticator implements OAuthAu
 
                 // Load the user's roles and groups
                 try {
-                    Collection<RoleType> roleTypes = session.getRoleManager().findUserRoleTypes(user);
-
-                    for (RoleType roleType : roleTypes) {
-                        for (Role role : session.getRoleManager().findRoles(user, roleType)) {
-                            identity.get().addRole(role.getRoleType().getName(), role.getGroup().getName(),
-                                    role.getGroup().getGroupType());
-                        }
-                    }
-
-                    for (Group g : session.getRelationshipManager().findAssociatedGroups(user)) {
-                        identity.get().addGroup(g.getName(), g.getGroupType());
-                    }
+                    MembershipLoader.load(session, user, identity.get());
                 } catch (FeatureNotSupportedException ex) {
                     throw new AuthenticationException("Error loading user's roles and groups", ex);
                 } catch (IdentityException ex) {
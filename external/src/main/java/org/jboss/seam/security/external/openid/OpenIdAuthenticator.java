@@ -1,7 +1,6 @@
 package org.jboss.seam.security.external.openid;
 
 import java.io.Serializable;
-import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -20,12 +19,10 @@ import org.jboss.seam.security.external.openid.api.OpenIdPrincipal;
 import org.jboss.seam.security.external.openid.api.OpenIdRelyingPartyApi;
 import org.jboss.seam.security.external.openid.api.OpenIdRequestedAttribute;
 import org.jboss.seam.security.external.openid.providers.OpenIdProvider;
+import org.jboss.seam.security.management.MembershipLoader;
 import org.jboss.seam.security.management.picketlink.IdentitySessionProducer;
 import org.jboss.seam.transaction.Transactional;
-import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.IdentitySession;
-import org.picketlink.idm.api.Role;
-import org.picketlink.idm.api.RoleType;
 import org.picketlink.idm.api.User;
 import org.picketlink.idm.common.exception.FeatureNotSupportedException;
 import org.picketlink.idm.common.exception.IdentityException;
@@ -167,18 +164,7 @@ class OpenIdAuthenticator extends BaseAuthenticator implements Authenticator, Se
                 
                 // Load the user's roles and groups        
                 try {            
-                    Collection<RoleType> roleTypes = session.getRoleManager().findUserRoleTypes(user);
-
-                    for (RoleType roleType : roleTypes) {
-                        for (Role role : session.getRoleManager().findRoles(user, roleType)) {
-                            identity.addRole(role.getRoleType().getName(),
-                                    role.getGroup().getName(), role.getGroup().getGroupType());
-                        }
-                    }
-                    
-                    for (Group g : session.getRelationshipManager().findAssociatedGroups(user)) {
-                        identity.addGroup(g.getName(), g.getGroupType());
-                    }
+                    MembershipLoader.load(session, user, identity);
                 } catch (FeatureNotSupportedException ex) {
                     throw new AuthenticationException("Error loading user's roles and groups", ex);
                 } catch (IdentityException ex) {
@@ -0,0 +1,80 @@
+package org.jboss.seam.security;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.seam.security.jaas.JaasAuthenticator;
+import org.jboss.seam.security.management.IdmAuthenticator;
+import org.jboss.solder.beanManager.BeanManagerLocator;
+
+/**
+ * Selects the Authenticator bean used when no authenticator has been configured explicitly.  The selection
+ * only depends on the beans of the deployment, so it is made once and then remembered.
+ */
+public
+@ApplicationScoped
+class AuthenticatorResolver {
+    private volatile Bean<?> defaultAuthenticator;
+
+    private volatile boolean resolved;
+
+    private volatile BeanManager beanManager;
+
+    /**
+     * Returns the bean of the user's own custom Authenticator if there is one, otherwise the bean of the
+     * IdmAuthenticator, or null if neither is available.  A custom authenticator is one that isn't one of
+     * the known authenticators; JaasAuthenticator, IdmAuthenticator, or any external authenticator, etc.
+     */
+    public Bean<?> getDefaultAuthenticator() {
+        if (!resolved) {
+            defaultAuthenticator = selectDefaultAuthenticator();
+            resolved = true;
+        }
+        return defaultAuthenticator;
+    }
+
+    /**
+     * Returns the bean manager used to look up authenticator beans
+     */
+    public BeanManager getBeanManager() {
+        if (beanManager == null) {
+            // Hack to workaround glassfish visibility issue
+            beanManager = new BeanManagerLocator().getBeanManager();
+        }
+        return beanManager;
+    }
+
+    private Bean<?> selectDefaultAuthenticator() {
+        Bean<?> selected = null;
+
+        for (Bean<?> bean : getBeanManager().getBeans(Authenticator.class)) {
+            Class<?> beanClass = bean.getBeanClass();
+
+            if (!JaasAuthenticator.class.isAssignableFrom(beanClass) &&
+                    !IdmAuthenticator.class.isAssignableFrom(beanClass) &&
+                    !isExternalAuthenticator(beanClass)) {
+                return bean;
+            }
+
+            if (IdmAuthenticator.class.isAssignableFrom(beanClass)) {
+                selected = bean;
+            }
+        }
+
+        return selected;
+    }
+
+    private boolean isExternalAuthenticator(Class<?> authClass) {
+        Class<?> cls = authClass;
+
+        while (cls != null && cls != Object.class) {
+            if (cls.getName().startsWith("org.jboss.seam.security.external.")) {
+                return true;
+            }
+            cls = cls.getSuperclass();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,98 @@
+package org.jboss.seam.security;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.Reception;
+
+import org.jboss.seam.security.annotations.Secures;
+import org.jboss.seam.security.events.PostAuthenticateEvent;
+import org.jboss.seam.security.events.PostLoggedOutEvent;
+
+/**
+ * Remembers the decisions made by cacheable authorizer methods (see {@link Secures#cacheable()}) for the
+ * duration of the current request.  The cache is cleared whenever the security state of the current user
+ * changes, and bypassed while a run as operation is executing, as its decisions aren't those of the user.
+ */
+@RequestScoped
+public class AuthorizationDecisionCache {
+    /**
+     * Identifies a single authorization decision; the authorizer that made it, plus the values of the
+     * secured method arguments that were bound to the authorizer's parameters
+     */
+    static final class DecisionKey {
+        private final Object authorizer;
+        private final Object[] boundValues;
+        private final int hashCode;
+
+        DecisionKey(Object authorizer, Object[] boundValues) {
+            this.authorizer = authorizer;
+            this.boundValues = boundValues;
+            this.hashCode = 31 * authorizer.hashCode() + Arrays.hashCode(boundValues);
+        }
+
+        @Override
+        public boolean equals(Object value) {
+            if (this == value) return true;
+            if (!(value instanceof DecisionKey)) return false;
+
+            DecisionKey other = (DecisionKey) value;
+            return hashCode == other.hashCode && authorizer.equals(other.authorizer) &&
+                    Arrays.equals(boundValues, other.boundValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final Map<DecisionKey, Boolean> decisions = new HashMap<DecisionKey, Boolean>();
+
+    /**
+     * The number of run as operations currently executing
+     */
+    private int suspensions;
+
+    /**
+     * Returns the remembered decision for the specified key, or null if no decision has been made yet
+     */
+    public Boolean get(DecisionKey key) {
+        return suspensions == 0 ? decisions.get(key) : null;
+    }
+
+    public void put(DecisionKey key, boolean decision) {
+        if (suspensions == 0) {
+            decisions.put(key, decision);
+        }
+    }
+
+    /**
+     * Stops remembering and returning decisions until resume() is called
+     */
+    public void suspend() {
+        suspensions++;
+    }
+
+    public void resume() {
+        if (suspensions > 0) suspensions--;
+    }
+
+    /**
+     * Discards all remembered decisions
+     */
+    public void clear() {
+        decisions.clear();
+    }
+
+    public void postAuthenticate(@Observes(notifyObserver = Reception.IF_EXISTS) PostAuthenticateEvent event) {
+        clear();
+    }
+
+    public void postLoggedOut(@Observes(notifyObserver = Reception.IF_EXISTS) PostLoggedOutEvent event) {
+        clear();
+    }
+}
@@ -8,6 +8,7 @@ import javax.inject.Inject;
 
 import org.jboss.seam.security.AuthorizationException;
 import org.jboss.seam.security.events.AuthorizationCheckEvent;
+import org.jboss.seam.security.events.BatchAuthorizationCheckEvent;
 
 /**
  * This event observer
@@ -35,4 +36,8 @@ class AuthorizationObserver {
             event.setPassed(true);
         }
     }
+
+    public void observeBatchAuthorizationCheckEvent(@Observes BatchAuthorizationCheckEvent event) {
+        event.setResults(extension.checkAuthorization(event.getBindingSets()));
+    }
 }
@@ -0,0 +1,32 @@
+package org.jboss.seam.security;
+
+import java.util.Collection;
+
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.Role;
+
+/**
+ * Implemented by Identity implementations that can grant a user's roles and groups in a single operation.
+ * This is an implementation detail of the identity management integration and is not part of the public API.
+ *
+ * @see org.jboss.seam.security.management.MembershipLoader
+ */
+public interface BulkMembershipIdentity {
+    /**
+     * Adds all of the specified roles to the authenticated user. See Identity.addRole() for semantics in
+     * relationship to the authenticated status of the user.
+     *
+     * @param roles The roles to add
+     * @return true if any of the roles were added
+     */
+    boolean addRoles(Collection<? extends Role> roles);
+
+    /**
+     * Adds the user to all of the specified groups. See Identity.addGroup() for semantics in relationship
+     * to the authenticated status of the user.
+     *
+     * @param groups The groups to add
+     * @return true if any of the groups were added
+     */
+    boolean addGroups(Collection<? extends Group> groups);
+}
@@ -1,17 +1,21 @@
 package org.jboss.seam.security;
 
 import java.io.Serializable;
-import java.lang.annotation.Annotation;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.enterprise.context.ContextNotActiveException;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
@@ -35,11 +39,10 @@ import org.jboss.seam.security.events.PostLoggedOutEvent;
 import org.jboss.seam.security.events.PreAuthenticateEvent;
 import org.jboss.seam.security.events.PreLoggedOutEvent;
 import org.jboss.seam.security.events.QuietLoginEvent;
-import org.jboss.seam.security.jaas.JaasAuthenticator;
-import org.jboss.seam.security.management.IdmAuthenticator;
+import org.jboss.seam.security.permission.PermissionCacheControl;
+import org.jboss.seam.security.permission.PermissionDecisionCache;
 import org.jboss.seam.security.permission.PermissionMapper;
 import org.jboss.seam.security.util.Strings;
-import org.jboss.solder.beanManager.BeanManagerLocator;
 import org.jboss.solder.literal.NamedLiteral;
 import org.jboss.solder.logging.Logger;
 import org.picketlink.idm.api.Group;
@@ -57,7 +60,7 @@ import org.picketlink.idm.impl.api.model.SimpleRoleType;
 public
 @Named("identity")
 @SessionScoped
-class IdentityImpl implements Identity, Serializable {
+class IdentityImpl implements Identity, BulkMembershipIdentity, Serializable {
     private static final long serialVersionUID = 3751659008033189259L;
 
     protected static boolean securityEnabled = true;
@@ -68,17 +71,44 @@ class IdentityImpl implements Identity, Serializable {
 
     @Inject private Credentials credentials;
 
-    @Inject private PermissionMapper permissionMapper;
+    @Inject PermissionMapper permissionMapper;
 
     @Inject Instance<RequestSecurityState> requestSecurityState;
 
+    /**
+     * Client proxy for the request security state, resolved once and valid for every request of the session
+     */
+    private transient RequestSecurityState requestState;
+
+    @Inject Instance<AuthorizationDecisionCache> authorizationDecisionCache;
+
+    @Inject Instance<PermissionDecisionCache> permissionDecisionCache;
+
+    @Inject PermissionCacheControl permissionCacheControl;
+
     @Inject @Any Instance<Authenticator> authenticators;
 
+    @Inject AuthenticatorResolver authenticatorResolver;
+
+    @Inject LoginAdmissionControl admissionControl;
+
+    @Inject LoginFailureTracker failureTracker;
+
     @Inject HttpSession session;
 
     private Authenticator activeAuthenticator;
 
-    private User user;
+    /**
+     * The creational context of the active authenticator, if it was created by lookupAuthenticator()
+     */
+    private transient CreationalContext<?> activeAuthenticatorContext;
+
+    /**
+     * The user, roles and groups of this identity.  The state is never modified in place; it is replaced
+     * as a whole (while holding the identity's lock), so that it can be read by concurrent requests without
+     * locking.
+     */
+    private volatile SecurityState state = SecurityState.EMPTY;
 
     private Class<? extends Authenticator> authenticatorClass;
     private String authenticatorName;
@@ -89,17 +119,17 @@ class IdentityImpl implements Identity, Serializable {
      */
     private Map<String, Map<String, List<String>>> preAuthenticationRoles = new HashMap<String, Map<String, List<String>>>();
 
-    private Set<Role> activeRoles = new HashSet<Role>();
-
     /**
      * Map of group name:group type group memberships assigned during the
      * authentication process
      */
     private Map<String, List<String>> preAuthenticationGroups = new HashMap<String, List<String>>();
 
-    private Set<Group> activeGroups = new HashSet<Group>();
-
-    private transient ThreadLocal<Boolean> systemOp;
+    /**
+     * The run-as operations being executed by each thread, which override the user of this identity for
+     * that thread only
+     */
+    private transient volatile ThreadLocal<RunAsOperation> runAsOperations;
 
     /**
      * Flag that indicates we are in the process of authenticating
@@ -116,7 +146,7 @@ class IdentityImpl implements Identity, Serializable {
 
     public boolean isLoggedIn() {
         // If there is a user set, then the user is logged in.
-        return user != null;
+        return getUser() != null;
     }
 
     public Class<? extends Authenticator> getAuthenticatorClass() {
@@ -136,23 +166,39 @@ class IdentityImpl implements Identity, Serializable {
     }
 
     public boolean tryLogin() {
-        if (!authenticating && getUser() == null && credentials.isSet() &&
-                !requestSecurityState.get().isLoginTried()) {
-            requestSecurityState.get().setLoginTried(true);
-            quietLogin();
+        // An authenticated user needs no further work, so avoid any contextual lookups
+        if (getUser() != null) {
+            return true;
+        }
+
+        if (!authenticating) {
+            RequestSecurityState state = getRequestSecurityState();
+
+            // Only query the credentials (which may fire CredentialsInitializedEvent) once per request
+            if (!state.isLoginTried() && credentials.isSet()) {
+                state.setLoginTried(true);
+                quietLogin();
+            }
         }
 
         return isLoggedIn();
     }
 
+    private RequestSecurityState getRequestSecurityState() {
+        if (requestState == null) {
+            requestState = requestSecurityState.get();
+        }
+        return requestState;
+    }
+
     public String login() {
         try {
             if (isLoggedIn()) {
                 // If authentication has already occurred during this request via a silent login,
                 // and login() is explicitly called then we still want to raise the LOGIN_SUCCESSFUL event,
                 // and then return.
-                if (requestSecurityState.get().isSilentLogin()) {
-                    beanManager.fireEvent(new LoggedInEvent(user));
+                if (getRequestSecurityState().isSilentLogin()) {
+                    beanManager.fireEvent(new LoggedInEvent(getUser()));
                     return RESPONSE_LOGIN_SUCCESS;
                 }
 
@@ -166,12 +212,20 @@ class IdentityImpl implements Identity, Serializable {
                 if (log.isDebugEnabled()) {
                     log.debug("Login successful");
                 }
-                beanManager.fireEvent(new LoggedInEvent(user));
+                beanManager.fireEvent(new LoggedInEvent(getUser()));
                 return RESPONSE_LOGIN_SUCCESS;
             }
 
             beanManager.fireEvent(new LoginFailedEvent(null));
             return RESPONSE_LOGIN_FAILED;
+        } catch (LoginRejectedException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug(ex.getMessage());
+            }
+
+            beanManager.fireEvent(new LoginFailedEvent(ex));
+
+            return RESPONSE_LOGIN_EXCEPTION;
         } catch (Exception ex) {
             log.error("Login failed", ex);
 
@@ -191,10 +245,15 @@ class IdentityImpl implements Identity, Serializable {
                     authenticate();
 
                     if (isLoggedIn()) {
-                        requestSecurityState.get().setSilentLogin(true);
+                        getRequestSecurityState().setSilentLogin(true);
                     }
                 }
             }
+        } catch (LoginRejectedException ex) {
+            // The credentials weren't verified, so they may still be valid
+            if (log.isDebugEnabled()) {
+                log.debug(ex.getMessage());
+            }
         } catch (Exception ex) {
             log.error("Error authenticating", ex);
             credentials.invalidate();
@@ -210,10 +269,17 @@ class IdentityImpl implements Identity, Serializable {
         try {
             authenticating = true;
 
-            user = null;
+            synchronized (this) {
+                state = state.withUser(null);
+            }
 
             preAuthenticate();
 
+            // Reject attempts for a username or from a client with too many recent failures outright
+            if (failureTracker.isEnabled() && failureTracker.isThrottled(credentials.getUsername())) {
+                throw new LoginRejectedException("Login rejected, too many failed authentication attempts");
+            }
+
             activeAuthenticator = lookupAuthenticator();
 
             if (activeAuthenticator == null) {
@@ -221,7 +287,17 @@ class IdentityImpl implements Identity, Serializable {
                 throw new AuthenticationException("An Authenticator could not be located");
             }
 
-            activeAuthenticator.authenticate();
+            if (admissionControl.isEnabled()) {
+                // Limit the number of credential verifications hitting the identity store at the same time
+                admissionControl.acquire();
+                try {
+                    activeAuthenticator.authenticate();
+                } finally {
+                    admissionControl.release();
+                }
+            } else {
+                activeAuthenticator.authenticate();
+            }
 
             if (activeAuthenticator.getStatus() == null) {
                 throw new AuthenticationException("Authenticator must return a valid authentication status");
@@ -233,12 +309,14 @@ class IdentityImpl implements Identity, Serializable {
                     return true;
                 case FAILURE:
                     authenticating = false;
+                    releaseActiveAuthenticator();
                     return false;
             }
 
             return false;
         } catch (Exception ex) {
             authenticating = false;
+            releaseActiveAuthenticator();
             if (ex instanceof AuthenticationException) {
                 throw (AuthenticationException) ex;
             } else {
@@ -262,7 +340,7 @@ class IdentityImpl implements Identity, Serializable {
             postAuthenticate();
         } else {
             authenticating = false;
-            activeAuthenticator = null;
+            releaseActiveAuthenticator();
         }
     }
 
@@ -276,39 +354,44 @@ class IdentityImpl implements Identity, Serializable {
 
             if (!activeAuthenticator.getStatus().equals(AuthenticationStatus.SUCCESS)) return;
 
-            user = activeAuthenticator.getUser();
+            User user = activeAuthenticator.getUser();
 
             if (user == null) {
                 throw new AuthenticationException("Authenticator must provide a non-null User after successful authentication");
             }
 
-            if (isLoggedIn()) {
-                if (!preAuthenticationRoles.isEmpty()) {
-                    for (String group : preAuthenticationRoles.keySet()) {
-                        Map<String, List<String>> groupTypeRoles = preAuthenticationRoles.get(group);
-                        for (String groupType : groupTypeRoles.keySet()) {
-                            for (String roleType : groupTypeRoles.get(groupType)) {
-                                addRole(roleType, group, groupType);
+            // The user and the roles and groups assigned during authentication are published together
+            synchronized (this) {
+                Map<MembershipKey, Role> roles = new LinkedHashMap<MembershipKey, Role>(state.roles);
+                for (String group : preAuthenticationRoles.keySet()) {
+                    Map<String, List<String>> groupTypeRoles = preAuthenticationRoles.get(group);
+                    for (String groupType : groupTypeRoles.keySet()) {
+                        for (String roleType : groupTypeRoles.get(groupType)) {
+                            MembershipKey key = new MembershipKey(roleType, group, groupType);
+                            if (!roles.containsKey(key)) {
+                                roles.put(key, new SimpleRole(new SimpleRoleType(roleType), user,
+                                        new SimpleGroup(group, groupType)));
                             }
                         }
                     }
-                    preAuthenticationRoles.clear();
                 }
+                preAuthenticationRoles.clear();
 
-                if (!preAuthenticationGroups.isEmpty()) {
-                    for (String group : preAuthenticationGroups.keySet()) {
-                        for (String groupType : preAuthenticationGroups.get(group)) {
-                            activeGroups.add(new SimpleGroup(group, groupType));
-                        }
+                List<Group> groups = new ArrayList<Group>();
+                for (String group : preAuthenticationGroups.keySet()) {
+                    for (String groupType : preAuthenticationGroups.get(group)) {
+                        groups.add(new SimpleGroup(group, groupType));
                     }
-                    preAuthenticationGroups.clear();
                 }
+                preAuthenticationGroups.clear();
+
+                state = new SecurityState(user, roles, state.groups).withGroups(groups);
             }
 
             beanManager.fireEvent(new PostAuthenticateEvent());
         } finally {
             // Set credential to null whether authentication is successful or not
-            activeAuthenticator = null;
+            releaseActiveAuthenticator();
             credentials.setCredential(null);
             authenticating = false;
         }
@@ -349,77 +432,46 @@ class IdentityImpl implements Identity, Serializable {
             return selected.get();
         }
 
-        Authenticator selectedAuth = null;
-
-        // Hack to workaround glassfish visibility issue
-        BeanManager bm = new BeanManagerLocator().getBeanManager();
-
-//    for (Authenticator auth : authenticators)
-        for (Authenticator auth : getReferences(bm, Authenticator.class)) {
-            // If the user has provided their own custom authenticator then use it -
-            // a custom authenticator is one that isn't one of the known authenticators;
-            // JaasAuthenticator, IdmAuthenticator, or any external authenticator, etc
-            if (!JaasAuthenticator.class.isAssignableFrom(auth.getClass()) &&
-                    !IdmAuthenticator.class.isAssignableFrom(auth.getClass()) &&
-                    !isExternalAuthenticator(auth.getClass())) {
-                selectedAuth = auth;
-                break;
-            }
-
-            if (IdmAuthenticator.class.isAssignableFrom(auth.getClass())) {
-                selectedAuth = auth;
-            }
+        // The default authenticator bean is only selected once, so just create a reference to it
+        Bean<?> bean = authenticatorResolver.getDefaultAuthenticator();
+        if (bean == null) {
+            return null;
         }
 
-        return selectedAuth;
+        BeanManager bm = authenticatorResolver.getBeanManager();
+        CreationalContext<?> context = bm.createCreationalContext(bean);
+        activeAuthenticatorContext = context;
+        return (Authenticator) bm.getReference(bean, Authenticator.class, context);
     }
 
+    /**
+     * Discards the active authenticator once authentication has completed, destroying it if it was
+     * created by lookupAuthenticator()
+     */
+    private void releaseActiveAuthenticator() {
+        activeAuthenticator = null;
 
-    private boolean isExternalAuthenticator(Class<? extends Authenticator> authClass) {
-        Class<?> cls = authClass;
-
-        while (cls != Object.class) {
-            if (cls.getName().startsWith("org.jboss.seam.security.external.")) {
-                return true;
-            }
-            cls = cls.getSuperclass();
-        }
-
-        return false;
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T> Set<T> getReferences(final BeanManager manager, final Class<T> type, Annotation... qualifiers) {
-        Set<Bean<?>> resolverBeans = manager.getBeans(type, qualifiers);
-        if (resolverBeans.size() == 0) {
-            return Collections.emptySet();
+        if (activeAuthenticatorContext != null) {
+            activeAuthenticatorContext.release();
+            activeAuthenticatorContext = null;
         }
-        Set<T> refs = new LinkedHashSet<T>();
-        for (Bean<?> bean : resolverBeans) {
-            // FIXME when should the dependent context be cleaned up?
-            CreationalContext<T> context = (CreationalContext<T>) manager.createCreationalContext(bean);
-            if (context != null) {
-                refs.add((T) manager.getReference(bean, type, context));
-            }
-        }
-        return refs;
     }
 
     /**
      * Resets all security state and credentials
      */
     public void unAuthenticate() {
-        user = null;
+        synchronized (this) {
+            state = SecurityState.EMPTY;
+        }
         credentials.clear();
         preAuthenticationRoles.clear();
-        activeRoles.clear();
         preAuthenticationGroups.clear();
-        activeGroups.clear();
     }
 
     public void logout() {
         if (isLoggedIn()) {
-            PostLoggedOutEvent loggedOutEvent = new PostLoggedOutEvent(user);
+            PostLoggedOutEvent loggedOutEvent = new PostLoggedOutEvent(getUser());
 
             beanManager.fireEvent(new PreLoggedOutEvent());
             unAuthenticate();
@@ -432,19 +484,11 @@ class IdentityImpl implements Identity, Serializable {
 
     public boolean hasRole(String roleType, String group, String groupType) {
         if (!securityEnabled) return true;
-        if (systemOp != null && Boolean.TRUE.equals(systemOp.get())) return true;
+        if (isSystemOperation()) return true;
 
         tryLogin();
 
-        for (Role role : activeRoles) {
-            if (role.getRoleType().getName().equals(roleType) &&
-                    role.getGroup().getName().equals(group) &&
-                    role.getGroup().getGroupType().equals(groupType)) {
-                return true;
-            }
-        }
-
-        return false;
+        return state.roles.containsKey(new MembershipKey(roleType, group, groupType));
     }
 
     public boolean addRole(String roleType, String group, String groupType) {
@@ -452,8 +496,19 @@ class IdentityImpl implements Identity, Serializable {
                 || groupType == null || "".equals(groupType)) return false;
 
         if (isLoggedIn()) {
-            return activeRoles.add(new SimpleRole(new SimpleRoleType(roleType),
-                    user, new SimpleGroup(group, groupType)));
+            MembershipKey key = new MembershipKey(roleType, group, groupType);
+
+            synchronized (this) {
+                if (state.roles.containsKey(key)) {
+                    return false;
+                }
+
+                state = state.withRole(key, new SimpleRole(new SimpleRoleType(roleType), getUser(),
+                        new SimpleGroup(group, groupType)));
+            }
+
+            clearAuthorizationDecisions();
+            return true;
         } else {
             List<String> roleTypes = null;
 
@@ -474,12 +529,45 @@ class IdentityImpl implements Identity, Serializable {
         }
     }
 
-    public boolean inGroup(String name, String groupType) {
-        for (Group group : activeGroups) {
-            if (group.getName().equals(name) && group.getGroupType().equals(groupType)) return true;
+    public boolean addRoles(Collection<? extends Role> roles) {
+        if (!isLoggedIn()) {
+            boolean added = false;
+            for (Role role : roles) {
+                added |= addRole(role.getRoleType().getName(), role.getGroup().getName(),
+                        role.getGroup().getGroupType());
+            }
+            return added;
         }
 
-        return false;
+        synchronized (this) {
+            Map<MembershipKey, Role> result = new LinkedHashMap<MembershipKey, Role>(state.roles);
+            for (Role role : roles) {
+                String roleType = role.getRoleType().getName();
+                String group = role.getGroup().getName();
+                String groupType = role.getGroup().getGroupType();
+
+                if (Strings.isEmpty(roleType) || Strings.isEmpty(group) || Strings.isEmpty(groupType)) continue;
+
+                MembershipKey key = new MembershipKey(roleType, group, groupType);
+                if (!result.containsKey(key)) {
+                    result.put(key, new SimpleRole(new SimpleRoleType(roleType), getUser(),
+                            new SimpleGroup(group, groupType)));
+                }
+            }
+
+            if (result.size() == state.roles.size()) {
+                return false;
+            }
+
+            state = new SecurityState(state.user, result, state.groups);
+        }
+
+        clearAuthorizationDecisions();
+        return true;
+    }
+
+    public boolean inGroup(String name, String groupType) {
+        return state.indexOfGroup(name, groupType) >= 0;
     }
 
     public boolean addGroup(String name, String groupType) {
@@ -488,7 +576,17 @@ class IdentityImpl implements Identity, Serializable {
         }
 
         if (isLoggedIn()) {
-            return activeGroups.add(new SimpleGroup(name, groupType));
+            synchronized (this) {
+                SecurityState result = state.withGroups(Collections.singleton(new SimpleGroup(name, groupType)));
+                if (result == state) {
+                    return false;
+                }
+
+                state = result;
+            }
+
+            clearAuthorizationDecisions();
+            return true;
         } else {
             List<String> groupTypes = null;
             if (preAuthenticationGroups.containsKey(name)) {
@@ -502,13 +600,39 @@ class IdentityImpl implements Identity, Serializable {
         }
     }
 
+    public boolean addGroups(Collection<? extends Group> groups) {
+        if (!isLoggedIn()) {
+            boolean added = false;
+            for (Group group : groups) {
+                added |= addGroup(group.getName(), group.getGroupType());
+            }
+            return added;
+        }
+
+        synchronized (this) {
+            SecurityState result = state.withGroups(groups);
+            if (result == state) {
+                return false;
+            }
+
+            state = result;
+        }
+
+        clearAuthorizationDecisions();
+        return true;
+    }
+
     public void removeGroup(String name, String groupType) {
-        for (Group group : activeGroups) {
-            if (group.getName().equals(name) && group.getGroupType().equals(groupType)) {
-                activeGroups.remove(group);
+        synchronized (this) {
+            SecurityState result = state.withoutGroup(name, groupType);
+            if (result == state) {
                 return;
             }
+
+            state = result;
         }
+
+        clearAuthorizationDecisions();
     }
 
     /**
@@ -517,19 +641,36 @@ class IdentityImpl implements Identity, Serializable {
      * @param role The name of the role to remove
      */
     public void removeRole(String roleType, String group, String groupType) {
-        for (Role role : activeRoles) {
-            if (role.getRoleType().getName().equals(roleType) &&
-                    role.getGroup().getName().equals(group) &&
-                    role.getGroup().getGroupType().equals(groupType)) {
-                activeRoles.remove(role);
+        MembershipKey key = new MembershipKey(roleType, group, groupType);
+
+        synchronized (this) {
+            if (!state.roles.containsKey(key)) {
                 return;
             }
+
+            state = state.withoutRole(key);
         }
+
+        clearAuthorizationDecisions();
     }
 
-    public void checkRole(String roleType, String group, String groupType) {
-        tryLogin();
+    /**
+     * Discards the authorization decisions cached during the current request, and the permission decisions
+     * cached for the session, as they may depend on the roles and groups of the user
+     */
+    private void clearAuthorizationDecisions() {
+        try {
+            authorizationDecisionCache.get().clear();
+        } catch (ContextNotActiveException ex) {
+            // No active request, so there is nothing to discard
+        }
+        if (permissionCacheControl.isEnabled()) {
+            permissionDecisionCache.get().clear();
+        }
+    }
 
+    public void checkRole(String roleType, String group, String groupType) {
+        // hasRole() performs the tryLogin()
         if (!hasRole(roleType, group, groupType)) {
             if (!isLoggedIn()) {
                 beanManager.fireEvent(new NotLoggedInEvent());
@@ -558,7 +699,7 @@ class IdentityImpl implements Identity, Serializable {
     }
 
     public void checkPermission(Object target, String action) {
-        if (systemOp != null && Boolean.TRUE.equals(systemOp.get())) return;
+        if (isSystemOperation()) return;
 
         tryLogin();
 
@@ -580,53 +721,305 @@ class IdentityImpl implements Identity, Serializable {
 
     public boolean hasPermission(Object target, String action) {
         if (!securityEnabled) return true;
-        if (systemOp != null && Boolean.TRUE.equals(systemOp.get())) return true;
+        if (isSystemOperation()) return true;
         if (permissionMapper == null) return false;
         if (target == null) return false;
 
-        return permissionMapper.resolvePermission(target, action);
-    }
+        // Decisions made on behalf of a run as operation aren't those of the user
+        if (!permissionCacheControl.isEnabled() || getRunAsOperation() != null) {
+            return permissionMapper.resolvePermission(target, action);
+        }
 
-    public synchronized void runAs(RunAsOperation operation) {
-        User savedUser = getUser();
+        PermissionDecisionCache cache = permissionDecisionCache.get();
+        Boolean decision = cache.get(target, action);
+        if (decision != null) return decision;
 
-        if (systemOp == null) {
-            systemOp = new ThreadLocal<Boolean>();
-        }
+        // Read before resolving, so that a change committed while the decision is being made invalidates it
+        long generation = permissionCacheControl.getGeneration();
+        boolean granted = permissionMapper.resolvePermission(target, action);
+        cache.put(target, action, granted, generation);
+        return granted;
+    }
 
-        boolean savedSystemOp = systemOp.get();
+    public void runAs(RunAsOperation operation) {
+        ThreadLocal<RunAsOperation> operations = runAsOperations;
+        if (operations == null) {
+            synchronized (this) {
+                if (runAsOperations == null) {
+                    runAsOperations = new ThreadLocal<RunAsOperation>();
+                }
+                operations = runAsOperations;
+            }
+        }
 
-        try {
-            user = operation.getUser();
+        // The operation only overrides the user for the current thread, so other requests are unaffected
+        RunAsOperation savedOperation = operations.get();
 
-            systemOp.set(operation.isSystemOperation());
+        // Decisions made on behalf of the operation mustn't be remembered for the user, nor the reverse
+        AuthorizationDecisionCache cache = suspendAuthorizationDecisions();
 
+        try {
+            operations.set(operation);
             operation.execute();
         } finally {
-            systemOp.set(savedSystemOp);
-            user = savedUser;
+            if (savedOperation != null) {
+                operations.set(savedOperation);
+            } else {
+                operations.remove();
+            }
+
+            if (cache != null) cache.resume();
+        }
+    }
+
+    /**
+     * Bypasses the authorization decisions cached during the current request, returning the cache to resume
+     * once done, or null if there is no active request
+     */
+    private AuthorizationDecisionCache suspendAuthorizationDecisions() {
+        try {
+            AuthorizationDecisionCache cache = authorizationDecisionCache.get();
+            cache.suspend();
+            return cache;
+        } catch (ContextNotActiveException ex) {
+            // No active request, so there is nothing to bypass
+            return null;
         }
     }
 
+    private RunAsOperation getRunAsOperation() {
+        ThreadLocal<RunAsOperation> operations = runAsOperations;
+        return operations != null ? operations.get() : null;
+    }
+
+    private boolean isSystemOperation() {
+        RunAsOperation operation = getRunAsOperation();
+        return operation != null && operation.isSystemOperation();
+    }
+
     public void checkRestriction(String expr) {
         // TODO Do we still need this method?
 
     }
 
     public User getUser() {
-        return user;
+        RunAsOperation operation = getRunAsOperation();
+        return operation != null ? operation.getUser() : state.user;
     }
 
     public Set<Role> getRoles() {
-        return Collections.unmodifiableSet(activeRoles);
+        return state.roleSet;
     }
 
     public Set<Group> getGroups() {
-        return Collections.unmodifiableSet(activeGroups);
+        return state.groupSet;
     }
 
     public boolean isVerified() {
         // TODO Auto-generated method stub
         return false;
     }
+
+    /**
+     * An immutable snapshot of the user, roles and groups of an identity
+     */
+    private static final class SecurityState implements Serializable {
+        private static final long serialVersionUID = -1490412498471302245L;
+
+        static final SecurityState EMPTY = new SecurityState(null, Collections.<MembershipKey, Role>emptyMap(),
+                new Group[0]);
+
+        private static final Comparator<Group> GROUP_ORDER = new GroupOrder();
+
+        final User user;
+        final Map<MembershipKey, Role> roles;
+
+        /**
+         * The groups, sorted by group type and then by name, so that a membership (including the nested
+         * memberships resolved at login) is found by a binary search rather than a lookup per group
+         */
+        final Group[] groups;
+
+        final Set<Role> roleSet;
+        final Set<Group> groupSet;
+
+        SecurityState(User user, Map<MembershipKey, Role> roles, Group[] groups) {
+            this.user = user;
+            this.roles = Collections.unmodifiableMap(roles);
+            this.groups = groups;
+            this.roleSet = Collections.unmodifiableSet(new LinkedHashSet<Role>(roles.values()));
+            this.groupSet = new GroupSet(groups);
+        }
+
+        private SecurityState(User user, SecurityState other) {
+            this.user = user;
+            this.roles = other.roles;
+            this.groups = other.groups;
+            this.roleSet = other.roleSet;
+            this.groupSet = other.groupSet;
+        }
+
+        SecurityState withUser(User user) {
+            return new SecurityState(user, this);
+        }
+
+        SecurityState withRole(MembershipKey key, Role role) {
+            Map<MembershipKey, Role> result = new LinkedHashMap<MembershipKey, Role>(roles);
+            result.put(key, role);
+            return new SecurityState(user, result, groups);
+        }
+
+        SecurityState withoutRole(MembershipKey key) {
+            Map<MembershipKey, Role> result = new LinkedHashMap<MembershipKey, Role>(roles);
+            result.remove(key);
+            return new SecurityState(user, result, groups);
+        }
+
+        /**
+         * Returns the index of the specified group, or a negative value if the user isn't a member of it
+         */
+        int indexOfGroup(String name, String groupType) {
+            int low = 0;
+            int high = groups.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = compare(groups[mid].getGroupType(), groups[mid].getName(), groupType, name);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the state with the specified groups added, or this state if the user is already a member
+         * of all of them
+         */
+        SecurityState withGroups(Collection<? extends Group> added) {
+            List<Group> result = new ArrayList<Group>(groups.length + added.size());
+            result.addAll(Arrays.asList(groups));
+            for (Group group : added) {
+                if (Strings.isEmpty(group.getName()) || Strings.isEmpty(group.getGroupType())) continue;
+
+                if (indexOfGroup(group.getName(), group.getGroupType()) < 0) {
+                    result.add(new SimpleGroup(group.getName(), group.getGroupType()));
+                }
+            }
+
+            if (result.size() == groups.length) {
+                return this;
+            }
+
+            Collections.sort(result, GROUP_ORDER);
+
+            // The added groups may contain duplicates of each other
+            List<Group> distinct = new ArrayList<Group>(result.size());
+            for (Group group : result) {
+                Group last = distinct.isEmpty() ? null : distinct.get(distinct.size() - 1);
+                if (last == null || GROUP_ORDER.compare(last, group) != 0) {
+                    distinct.add(group);
+                }
+            }
+            return new SecurityState(user, roles, distinct.toArray(new Group[distinct.size()]));
+        }
+
+        SecurityState withoutGroup(String name, String groupType) {
+            int index = indexOfGroup(name, groupType);
+            if (index < 0) {
+                return this;
+            }
+
+            Group[] result = new Group[groups.length - 1];
+            System.arraycopy(groups, 0, result, 0, index);
+            System.arraycopy(groups, index + 1, result, index, result.length - index);
+            return new SecurityState(user, roles, result);
+        }
+
+        private static int compare(String type1, String name1, String type2, String name2) {
+            int c = compareNullable(type1, type2);
+            return c != 0 ? c : compareNullable(name1, name2);
+        }
+
+        private static int compareNullable(String a, String b) {
+            if (a == null) return b == null ? 0 : -1;
+            return b == null ? 1 : a.compareTo(b);
+        }
+
+        private static final class GroupOrder implements Comparator<Group>, Serializable {
+            private static final long serialVersionUID = 2946466125744766413L;
+
+            public int compare(Group g1, Group g2) {
+                return SecurityState.compare(g1.getGroupType(), g1.getName(), g2.getGroupType(), g2.getName());
+            }
+        }
+    }
+
+    /**
+     * A read-only set view of the sorted groups of a security state
+     */
+    private static final class GroupSet extends AbstractSet<Group> implements Serializable {
+        private static final long serialVersionUID = -4213337262329484418L;
+
+        private final Group[] groups;
+
+        GroupSet(Group[] groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        public Iterator<Group> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(groups)).iterator();
+        }
+
+        @Override
+        public int size() {
+            return groups.length;
+        }
+    }
+
+    /**
+     * Identifies a role (role type, group name and group type) held by the user
+     */
+    private static final class MembershipKey implements Serializable {
+        private static final long serialVersionUID = 6079164373127372117L;
+
+        private final String roleType;
+        private final String group;
+        private final String groupType;
+        private final int hashCode;
+
+        MembershipKey(String roleType, String group, String groupType) {
+            this.roleType = roleType;
+            this.group = group;
+            this.groupType = groupType;
+
+            int result = roleType != null ? roleType.hashCode() : 0;
+            result = 31 * result + (group != null ? group.hashCode() : 0);
+            result = 31 * result + (groupType != null ? groupType.hashCode() : 0);
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MembershipKey)) return false;
+
+            MembershipKey other = (MembershipKey) obj;
+            return hashCode == other.hashCode && equal(roleType, other.roleType) && equal(group, other.group) &&
+                    equal(groupType, other.groupType);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
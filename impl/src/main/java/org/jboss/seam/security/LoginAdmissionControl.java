@@ -0,0 +1,219 @@
+package org.jboss.seam.security;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.ObjectName;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Limits the number of authentication attempts that verify credentials at the same time, protecting the
+ * identity store from login storms.  Attempts beyond the limit wait for admission in a bounded queue; they
+ * are rejected with a LoginRejectedException if the queue is full or if they aren't admitted within the
+ * queue timeout.
+ * <p/>
+ * Admission control is disabled unless the maxConcurrentAuthentications property is configured, e.g. with
+ * Seam Config.
+ */
+public
+@ApplicationScoped
+class LoginAdmissionControl implements LoginAdmissionControlMBean {
+    private static final Logger log = Logger.getLogger(LoginAdmissionControl.class);
+
+    private volatile int maxConcurrentAuthentications = 0;
+
+    private int maxQueuedAuthentications = 100;
+
+    /**
+     * The maximum time in milliseconds that an authentication attempt waits for admission
+     */
+    private long queueTimeout = 5000;
+
+    private volatile ResizableSemaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void registerMBean() {
+        try {
+            objectName = new ObjectName("org.jboss.seam.security:type=LoginAdmissionControl,id="
+                    + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (Exception ex) {
+            objectName = null;
+            log.warn("Could not register login admission control MBean", ex);
+        }
+    }
+
+    @PreDestroy
+    public void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ex) {
+                log.warn("Could not unregister login admission control MBean", ex);
+            }
+            objectName = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxConcurrentAuthentications > 0;
+    }
+
+    /**
+     * Waits for admission to verify credentials.  Every successful call must be followed by a call to release().
+     *
+     * @throws LoginRejectedException if the attempt wasn't admitted
+     */
+    public void acquire() throws LoginRejectedException {
+        Semaphore semaphore = getPermits();
+
+        if (semaphore.tryAcquire()) {
+            admitted.incrementAndGet();
+            return;
+        }
+
+        if (queued.incrementAndGet() > maxQueuedAuthentications) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new LoginRejectedException("Login rejected, too many authentication attempts are queued");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired = false;
+
+        try {
+            acquired = semaphore.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued.decrementAndGet();
+        }
+
+        if (!acquired) {
+            rejected.incrementAndGet();
+            throw new LoginRejectedException("Login rejected, timed out waiting for admission");
+        }
+
+        long waited = System.nanoTime() - start;
+        admitted.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+
+        long max = maxWaitNanos.get();
+        while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    public void release() {
+        getPermits().release();
+    }
+
+    private Semaphore getPermits() {
+        if (permits == null) {
+            synchronized (this) {
+                if (permits == null) {
+                    permits = new ResizableSemaphore(maxConcurrentAuthentications);
+                }
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * A fair semaphore whose number of permits can be reduced while some of them are held
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = -2386395683419117433L;
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    public int getMaxConcurrentAuthentications() {
+        return maxConcurrentAuthentications;
+    }
+
+    /**
+     * Changes the number of authentication attempts that may verify credentials at the same time.  If the limit is
+     * lowered while more attempts than the new limit are in progress, no further attempts are admitted until enough
+     * of them have completed.
+     */
+    public synchronized void setMaxConcurrentAuthentications(int maxConcurrentAuthentications) {
+        if (maxConcurrentAuthentications < 0) {
+            throw new IllegalArgumentException("maxConcurrentAuthentications must not be negative");
+        }
+
+        ResizableSemaphore semaphore = permits;
+        if (semaphore != null) {
+            int change = maxConcurrentAuthentications - this.maxConcurrentAuthentications;
+            if (change > 0) {
+                semaphore.release(change);
+            } else if (change < 0) {
+                semaphore.reducePermits(-change);
+            }
+        }
+        this.maxConcurrentAuthentications = maxConcurrentAuthentications;
+    }
+
+    public int getMaxQueuedAuthentications() {
+        return maxQueuedAuthentications;
+    }
+
+    public void setMaxQueuedAuthentications(int maxQueuedAuthentications) {
+        this.maxQueuedAuthentications = maxQueuedAuthentications;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public void setQueueTimeout(long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    public int getActiveAuthentications() {
+        return isEnabled() ? maxConcurrentAuthentications - getPermits().availablePermits() : 0;
+    }
+
+    public int getQueuedAuthentications() {
+        return queued.get();
+    }
+
+    public long getAdmittedAuthentications() {
+        return admitted.get();
+    }
+
+    public long getRejectedAuthentications() {
+        return rejected.get();
+    }
+
+    public double getMeanWaitTime() {
+        long count = admitted.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (count * 1000000.0);
+    }
+
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+}
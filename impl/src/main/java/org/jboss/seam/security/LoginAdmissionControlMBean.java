@@ -0,0 +1,36 @@
+package org.jboss.seam.security;
+
+/**
+ * Management interface for the login admission control of a deployment
+ */
+public interface LoginAdmissionControlMBean {
+    int getMaxConcurrentAuthentications();
+
+    int getMaxQueuedAuthentications();
+
+    long getQueueTimeout();
+
+    /**
+     * Returns the number of credential verifications currently in progress
+     */
+    int getActiveAuthentications();
+
+    /**
+     * Returns the number of authentication attempts currently waiting for admission
+     */
+    int getQueuedAuthentications();
+
+    long getAdmittedAuthentications();
+
+    long getRejectedAuthentications();
+
+    /**
+     * Returns the mean time in milliseconds that admitted authentication attempts waited for admission
+     */
+    double getMeanWaitTime();
+
+    /**
+     * Returns the longest time in milliseconds that an authentication attempt waited for admission
+     */
+    long getMaxWaitTime();
+}
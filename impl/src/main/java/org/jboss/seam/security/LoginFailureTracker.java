@@ -0,0 +1,205 @@
+package org.jboss.seam.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+
+import org.jboss.seam.security.events.LoggedInEvent;
+import org.jboss.seam.security.events.LoginFailedEvent;
+
+/**
+ * Tracks failed authentication attempts by username and by client address, so that further attempts can be
+ * rejected without consulting the Authenticator once too many have failed.  Failure counts decay over time,
+ * halving for every failureHalfLife milliseconds that pass without a failure, so once maxFailures failures
+ * have been recorded in quick succession, attempts are rejected for failureHalfLife milliseconds after the last
+ * of them.  The number of tracked usernames and addresses is bounded, the least recently used ones being
+ * forgotten first.
+ * <p/>
+ * Tracking is disabled unless the maxFailures property is configured, e.g. with Seam Config.
+ */
+public
+@ApplicationScoped
+class LoginFailureTracker {
+    private static final int SHARDS = 16;
+
+    private int maxFailures = 0;
+
+    /**
+     * The time in milliseconds without a failure after which a failure count is halved
+     */
+    private long failureHalfLife = 300000;
+
+    /**
+     * The maximum number of usernames and client addresses tracked
+     */
+    private int maxEntries = 10000;
+
+    @Inject
+    Instance<HttpServletRequest> requests;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final AtomicLong throttledAttempts = new AtomicLong();
+
+    public LoginFailureTracker() {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * The failures recorded for a single username or client address
+     */
+    private static final class FailureRecord {
+        private double count;
+        private long lastFailure;
+
+        double decayedCount(long now, long halfLife) {
+            // Only whole half-lives count, so the failures remain at full weight until the first has passed
+            return count * Math.pow(0.5, (now - lastFailure) / halfLife);
+        }
+    }
+
+    /**
+     * A least recently used map of failure records, guarded by its own lock
+     */
+    private final class Shard extends LinkedHashMap<String, FailureRecord> {
+        private static final long serialVersionUID = -5021283406468532744L;
+
+        Shard() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FailureRecord> eldest) {
+            return size() > Math.max(1, maxEntries / SHARDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxFailures > 0;
+    }
+
+    /**
+     * Returns true if authentication attempts for the specified username, or from the client address of the
+     * current request, should be rejected
+     */
+    public boolean isThrottled(String username) {
+        long now = currentTimeMillis();
+
+        if ((username != null && exceedsThreshold(usernameKey(username), now)) ||
+                exceedsThreshold(addressKey(getClientAddress()), now)) {
+            throttledAttempts.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    public void loginFailed(@Observes LoginFailedEvent event, Credentials credentials) {
+        // Rejected attempts never reached the authenticator, so they don't count as failures
+        if (!isEnabled() || event.getLoginException() instanceof LoginRejectedException) return;
+
+        long now = currentTimeMillis();
+        recordFailure(usernameKey(credentials.getUsername()), now);
+        recordFailure(addressKey(getClientAddress()), now);
+    }
+
+    public void loggedIn(@Observes LoggedInEvent event, Credentials credentials) {
+        if (!isEnabled()) return;
+
+        String key = usernameKey(credentials.getUsername());
+        if (key != null) {
+            Shard shard = shardOf(key);
+            synchronized (shard) {
+                shard.remove(key);
+            }
+        }
+    }
+
+    private boolean exceedsThreshold(String key, long now) {
+        if (key == null) return false;
+
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            FailureRecord record = shard.get(key);
+            return record != null && record.decayedCount(now, failureHalfLife) >= maxFailures;
+        }
+    }
+
+    private void recordFailure(String key, long now) {
+        if (key == null) return;
+
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            FailureRecord record = shard.get(key);
+            if (record == null) {
+                record = new FailureRecord();
+                shard.put(key, record);
+            }
+            record.count = record.decayedCount(now, failureHalfLife) + 1;
+            record.lastFailure = now;
+        }
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Shard shardOf(String key) {
+        return shards[(key.hashCode() & 0x7fffffff) % SHARDS];
+    }
+
+    private String usernameKey(String username) {
+        return username != null ? "u:" + username : null;
+    }
+
+    private String addressKey(String address) {
+        return address != null ? "a:" + address : null;
+    }
+
+    private String getClientAddress() {
+        if (requests.isUnsatisfied() || requests.isAmbiguous()) return null;
+
+        try {
+            return requests.get().getRemoteAddr();
+        } catch (RuntimeException ex) {
+            // Not invoked during a servlet request
+            return null;
+        }
+    }
+
+    public long getThrottledAttempts() {
+        return throttledAttempts.get();
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public void setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    public long getFailureHalfLife() {
+        return failureHalfLife;
+    }
+
+    public void setFailureHalfLife(long failureHalfLife) {
+        this.failureHalfLife = failureHalfLife;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+}
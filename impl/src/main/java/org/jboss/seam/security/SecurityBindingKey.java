@@ -0,0 +1,144 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.enterprise.util.Nonbinding;
+
+/**
+ * A canonical, immutable key for a security binding, made up of the binding's annotation type and
+ * the values of its binding (i.e. non-{@link Nonbinding}) members. Two security bindings match if
+ * their keys are equal.
+ */
+final class SecurityBindingKey {
+    private static final Comparator<Method> MEMBER_ORDER = new Comparator<Method>() {
+        public int compare(Method m1, Method m2) {
+            return m1.getName().compareTo(m2.getName());
+        }
+    };
+
+    private static final Object[] NO_MEMBER_VALUES = new Object[0];
+
+    /**
+     * The binding member metadata of a security binding type, computed once per annotation type
+     */
+    private static final class BindingType {
+        private final Method[] members;
+
+        /**
+         * The single key shared by every binding of a type without binding members
+         */
+        private final SecurityBindingKey sharedKey;
+
+        BindingType(Class<? extends Annotation> annotationType) {
+            List<Method> bindingMembers = new ArrayList<Method>();
+            for (Method m : annotationType.getDeclaredMethods()) {
+                if (!m.isAnnotationPresent(Nonbinding.class)) {
+                    if (!m.isAccessible()) {
+                        m.setAccessible(true);
+                    }
+                    bindingMembers.add(m);
+                }
+            }
+            Collections.sort(bindingMembers, MEMBER_ORDER);
+
+            this.members = bindingMembers.toArray(new Method[bindingMembers.size()]);
+            this.sharedKey = members.length == 0 ? new SecurityBindingKey(annotationType, NO_MEMBER_VALUES) : null;
+        }
+    }
+
+    /**
+     * Creates security binding keys, remembering the binding member metadata of each annotation type.  Each
+     * SecurityExtension owns its own factory, so that the metadata of application annotation types doesn't
+     * outlive the deployment.
+     */
+    static final class Factory {
+        private final ConcurrentMap<Class<? extends Annotation>, BindingType> bindingTypes =
+                new ConcurrentHashMap<Class<? extends Annotation>, BindingType>();
+
+        /**
+         * Creates the key for the specified security binding
+         */
+        public SecurityBindingKey create(Annotation binding) {
+            BindingType bindingType = lookupBindingType(binding.annotationType());
+
+            if (bindingType.sharedKey != null) {
+                return bindingType.sharedKey;
+            }
+
+            Object[] memberValues = new Object[bindingType.members.length];
+            try {
+                for (int i = 0; i < memberValues.length; i++) {
+                    memberValues[i] = bindingType.members[i].invoke(binding);
+                }
+            } catch (InvocationTargetException ex) {
+                throw new SecurityDefinitionException("Error reading security binding members", ex);
+            } catch (IllegalAccessException ex) {
+                throw new SecurityDefinitionException("Error reading security binding members", ex);
+            }
+
+            return new SecurityBindingKey(binding.annotationType(), memberValues);
+        }
+
+        /**
+         * Forgets the binding member metadata of every annotation type
+         */
+        public void clear() {
+            bindingTypes.clear();
+        }
+
+        private BindingType lookupBindingType(Class<? extends Annotation> annotationType) {
+            BindingType bindingType = bindingTypes.get(annotationType);
+            if (bindingType == null) {
+                bindingType = new BindingType(annotationType);
+                BindingType existing = bindingTypes.putIfAbsent(annotationType, bindingType);
+                if (existing != null) {
+                    bindingType = existing;
+                }
+            }
+            return bindingType;
+        }
+    }
+
+    private final Class<? extends Annotation> annotationType;
+    private final Object[] memberValues;
+    private final int hashCode;
+
+    private SecurityBindingKey(Class<? extends Annotation> annotationType, Object[] memberValues) {
+        this.annotationType = annotationType;
+        this.memberValues = memberValues;
+        this.hashCode = 31 * annotationType.hashCode() + Arrays.deepHashCode(memberValues);
+    }
+
+    public Class<? extends Annotation> getAnnotationType() {
+        return annotationType;
+    }
+
+    @Override
+    public boolean equals(Object value) {
+        if (this == value) return true;
+        if (!(value instanceof SecurityBindingKey)) return false;
+
+        SecurityBindingKey other = (SecurityBindingKey) value;
+        return hashCode == other.hashCode && annotationType.equals(other.annotationType) &&
+                Arrays.deepEquals(memberValues, other.memberValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + annotationType.getName() + Arrays.deepToString(memberValues);
+    }
+}
@@ -1,37 +1,63 @@
 package org.jboss.seam.security;
 
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.context.RequestScoped;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
-import javax.enterprise.inject.spi.Annotated;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
 import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.AnnotatedParameter;
 import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
 import javax.enterprise.inject.spi.ProcessSessionBean;
 import javax.enterprise.inject.spi.SessionBeanType;
-import javax.enterprise.util.Nonbinding;
 import javax.interceptor.InvocationContext;
+import javax.management.ObjectName;
 
+import org.jboss.seam.security.AuthorizationDecisionCache.DecisionKey;
 import org.jboss.seam.security.annotations.Secures;
 import org.jboss.seam.security.annotations.SecurityBindingType;
 import org.jboss.seam.security.annotations.SecurityParameterBinding;
+import org.jboss.seam.security.metrics.AuthorizationMetrics;
+import org.jboss.seam.security.metrics.InvocationStatistics;
+import org.jboss.solder.bean.Beans;
+import org.jboss.solder.logging.Logger;
 import org.jboss.solder.reflection.annotated.AnnotatedTypeBuilder;
-import org.jboss.solder.reflection.annotated.InjectableMethod;
-import org.jboss.solder.reflection.annotated.ParameterValueRedefiner;
 
 /**
  * Extension for typesafe security annotations
@@ -40,121 +66,292 @@ import org.jboss.solder.reflection.annotated.ParameterValueRedefiner;
  * @author <a href="mailto:lincolnbaxter@gmail.com">Lincoln Baxter, III</a>
  */
 public class SecurityExtension implements Extension {
+    private static final Logger log = Logger.getLogger(SecurityExtension.class);
+
     private BeanManager beanManager;
 
-    /**
-     * Responsible for supplying requested method invocation values to the security binding method.
-     */
-    public class SecurityParameterValueRedefiner implements ParameterValueRedefiner {
-        private CreationalContext<?> creationalContext;
-        private InvocationContext invocation;
+    class Authorizer {
+        private Annotation binding;
+        private SecurityBindingKey bindingKey;
 
-        public SecurityParameterValueRedefiner(CreationalContext<?> creationalContext, InvocationContext invocation) {
-            this.invocation = invocation;
-            this.creationalContext = creationalContext;
-        }
+        private AnnotatedMethod<?> implementationMethod;
+        private volatile Bean<?> targetBean;
 
-        @Override
-        public Object redefineParameterValue(ParameterValue value) {
-            Object result = value.getDefaultValue(creationalContext);
+        /**
+         * The client proxy of the authorizer bean, cached if the bean is normal-scoped
+         */
+        private Object cachedReference;
+
+        /**
+         * The creational context of the cached client proxy, released when the application shuts down
+         */
+        private CreationalContext<?> cachedReferenceContext;
+
+        /**
+         * The injection points of the authorizer method parameters
+         */
+        private InjectionPoint[] parameters;
+
+        /**
+         * For each authorizer method parameter, the security parameter bindings it declares (if any)
+         */
+        private Annotation[][] parameterBindings;
+
+        /**
+         * True if the decisions made by this authorizer may be remembered for the rest of the request
+         */
+        private boolean cacheable;
+
+        /**
+         * True if the authorizer method returns a Future, i.e. performs its check asynchronously
+         */
+        private boolean asynchronous;
+
+        private InvocationStatistics statistics;
+
+        public Authorizer(Annotation binding, AnnotatedMethod<?> implementationMethod) {
+            this.binding = binding;
+            this.implementationMethod = implementationMethod;
+            this.bindingKey = bindingKeys.create(binding);
+
+            Secures secures = implementationMethod.getAnnotation(Secures.class);
+            this.cacheable = secures != null && secures.cacheable();
+            this.asynchronous = Future.class.isAssignableFrom(implementationMethod.getJavaMember().getReturnType());
+            this.statistics = metrics.register(binding.annotationType(), implementationMethod.getJavaMember()
+                    .getDeclaringClass().getName() + "." + implementationMethod.getJavaMember().getName());
 
-            InjectionPoint injectionPoint = value.getInjectionPoint();
-            if (injectionPoint != null) {
-                Annotated securingParameterAnnotatedType = injectionPoint.getAnnotated();
-                Set<Annotation> securingParameterAnnotations = securingParameterAnnotatedType.getAnnotations();
+            List<? extends AnnotatedParameter<?>> annotatedParameters = implementationMethod.getParameters();
+            parameterBindings = new Annotation[annotatedParameters.size()][];
 
-                Set<Annotation> requiredBindingAnnotations = new HashSet<Annotation>();
-                for (Annotation annotation : securingParameterAnnotations) {
+            for (int i = 0; i < parameterBindings.length; i++) {
+                List<Annotation> requiredBindings = new ArrayList<Annotation>();
+                for (Annotation annotation : annotatedParameters.get(i).getAnnotations()) {
                     if (annotation.annotationType().isAnnotationPresent(SecurityParameterBinding.class)) {
-                        requiredBindingAnnotations.add(annotation);
+                        requiredBindings.add(annotation);
                     }
                 }
 
-                if (!requiredBindingAnnotations.isEmpty()) {
-                    Annotation[][] businessMethodParameterAnnotations = invocation.getMethod().getParameterAnnotations();
-                    for (int i = 0; i < businessMethodParameterAnnotations.length; i++) {
-                        List<Annotation> businessParameterAnnotations = Arrays.asList(businessMethodParameterAnnotations[i]);
-                        for (Annotation annotation : requiredBindingAnnotations) {
-                            if (businessParameterAnnotations.contains(annotation)) {
-                                return invocation.getParameters()[i];
-                            }
-                        }
-                    }
-                }
+                parameterBindings[i] = requiredBindings.toArray(new Annotation[requiredBindings.size()]);
             }
+        }
 
-            return result;
+        public void authorize() {
+            authorize(null, null);
         }
-    }
 
-    class Authorizer {
-        private Annotation binding;
-        private Map<Method, Object> memberValues = new HashMap<Method, Object>();
+        /**
+         * Performs the authorization check for an invocation of a secured method
+         * 
+         * @param context The secured method invocation, may be null
+         * @param argumentIndexes For each authorizer method parameter, the index of the secured method argument
+         *        that it is bound to, or -1 if the parameter value should be injected. May be null if context is null.
+         * @throws AuthorizationException if the authorization check fails
+         */
+        public void authorize(InvocationContext context, int[] argumentIndexes) {
+            if (!isAuthorized(context, argumentIndexes)) {
+                throw new AuthorizationException("Authorization check failed");
+            }
+        }
 
-        private AnnotatedMethod<?> implementationMethod;
-        private Bean<?> targetBean;
+        /**
+         * Returns the result of the authorization check, using the decision cache of the current request if this
+         * authorizer is cacheable
+         */
+        public boolean isAuthorized(InvocationContext context, int[] argumentIndexes) {
+            if (asynchronous) {
+                return authorizeAsynchronously(context, argumentIndexes).await();
+            }
 
-        private InjectableMethod<?> injectableMethod;
+            AuthorizationDecisionCache cache = cacheable ? lookupDecisionCache() : null;
 
-        public Authorizer(Annotation binding, AnnotatedMethod<?> implementationMethod) {
-            this.binding = binding;
-            this.implementationMethod = implementationMethod;
+            if (cache == null) {
+                return evaluate(context, argumentIndexes);
+            }
 
-            try {
-                for (Method m : binding.annotationType().getDeclaredMethods()) {
-                    if (m.isAnnotationPresent(Nonbinding.class))
-                        continue;
-                    memberValues.put(m, m.invoke(binding));
-                }
-            } catch (InvocationTargetException ex) {
-                throw new SecurityDefinitionException("Error reading security binding members", ex);
-            } catch (IllegalAccessException ex) {
-                throw new SecurityDefinitionException("Error reading security binding members", ex);
+            DecisionKey key = createDecisionKey(context, argumentIndexes);
+            Boolean decision = cache.get(key);
+            if (decision != null) {
+                metrics.recordDecisionCacheHit();
+                return decision;
             }
+
+            metrics.recordDecisionCacheMiss();
+            boolean result = evaluate(context, argumentIndexes);
+            cache.put(key, result);
+            return result;
         }
 
-        public void authorize() {
+        /**
+         * Starts the authorization check of an asynchronous authorizer. The check is only complete once the
+         * returned PendingAuthorization has been awaited or cancelled.
+         */
+        public PendingAuthorization authorizeAsynchronously(InvocationContext context, int[] argumentIndexes) {
+            AuthorizationDecisionCache cache = cacheable ? lookupDecisionCache() : null;
+
+            DecisionKey key = null;
+            if (cache != null) {
+                key = createDecisionKey(context, argumentIndexes);
+                Boolean decision = cache.get(key);
+                if (decision != null) {
+                    metrics.recordDecisionCacheHit();
+                    return new PendingAuthorization(decision);
+                }
+                metrics.recordDecisionCacheMiss();
+            }
+
             if (targetBean == null) {
                 lookupTargetBean();
             }
 
+            // The creational context may only be released once the asynchronous check has completed
             CreationalContext<?> cc = beanManager.createCreationalContext(targetBean);
+            long start = metrics.isEnabled() ? System.nanoTime() : -1;
+
+            try {
+                Object reference = cachedReference;
+                if (reference == null) {
+                    reference = beanManager.getReference(targetBean, implementationMethod.getJavaMember()
+                            .getDeclaringClass(), cc);
+                }
 
-            Object reference = beanManager.getReference(targetBean, implementationMethod.getJavaMember().getDeclaringClass(),
-                    cc);
+                Object[] parameterValues = new Object[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    parameterValues[i] = context != null && argumentIndexes[i] != -1 ?
+                            context.getParameters()[argumentIndexes[i]] :
+                            beanManager.getInjectableReference(parameters[i], cc);
+                }
 
-            Object result = injectableMethod.invoke(reference, cc, null);
+                Future<?> result = (Future<?>) invokeAuthorizerMethod(reference, parameterValues);
+                return new PendingAuthorization(result, cc, cache, key, start != -1 ? statistics : null, start);
+            } catch (RuntimeException ex) {
+                cc.release();
+                throw ex;
+            }
+        }
 
-            if (result.equals(Boolean.FALSE)) {
-                throw new AuthorizationException("Authorization check failed");
+        public boolean isAsynchronous() {
+            return asynchronous;
+        }
+
+        private DecisionKey createDecisionKey(InvocationContext context, int[] argumentIndexes) {
+            Object[] boundValues = new Object[argumentIndexes != null ? argumentIndexes.length : 0];
+            for (int i = 0; i < boundValues.length; i++) {
+                if (context != null && argumentIndexes[i] != -1) {
+                    boundValues[i] = context.getParameters()[argumentIndexes[i]];
+                }
             }
+
+            return new DecisionKey(this, boundValues);
         }
 
-        public void authorize(InvocationContext context) {
+        private boolean evaluate(InvocationContext context, int[] argumentIndexes) {
             if (targetBean == null) {
                 lookupTargetBean();
             }
 
-            CreationalContext<?> cc = beanManager.createCreationalContext(targetBean);
+            // A creational context is only required if the authorizer bean is dependent, or if any of the
+            // authorizer method parameters are injected; it is released as soon as the check is complete
+            CreationalContext<?> cc = null;
 
-            Object reference = beanManager.getReference(targetBean, implementationMethod.getJavaMember().getDeclaringClass(),
-                    cc);
+            long start = metrics.isEnabled() ? System.nanoTime() : -1;
+            // Remains null if the authorizer throws an exception
+            Boolean passed = null;
 
-            Object result = injectableMethod.invoke(reference, cc, new SecurityParameterValueRedefiner(cc, context));
+            try {
+                Object reference = cachedReference;
+                if (reference == null) {
+                    cc = beanManager.createCreationalContext(targetBean);
+                    reference = beanManager.getReference(targetBean, implementationMethod.getJavaMember()
+                            .getDeclaringClass(), cc);
+                }
 
-            if (result.equals(Boolean.FALSE)) {
-                throw new AuthorizationException("Authorization check failed");
+                Object[] parameterValues = new Object[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    if (context != null && argumentIndexes[i] != -1) {
+                        parameterValues[i] = context.getParameters()[argumentIndexes[i]];
+                        continue;
+                    }
+
+                    if (cc == null) {
+                        cc = beanManager.createCreationalContext(targetBean);
+                    }
+                    parameterValues[i] = beanManager.getInjectableReference(parameters[i], cc);
+                }
+
+                passed = Boolean.TRUE.equals(invokeAuthorizerMethod(reference, parameterValues));
+                return passed;
+            } finally {
+                if (start != -1) {
+                    if (passed != null) {
+                        statistics.record(System.nanoTime() - start, !passed);
+                    } else {
+                        statistics.recordFailure(System.nanoTime() - start);
+                    }
+                }
+
+                if (cc != null) {
+                    cc.release();
+                }
+            }
+        }
+
+        /**
+         * Maps each authorizer method parameter declaring a security parameter binding to the first parameter of the
+         * specified secured method that is annotated with one of the same bindings.
+         * 
+         * @param businessMethod The secured method
+         * @return For each authorizer method parameter, the index of the secured method parameter it is bound to, or -1
+         */
+        public int[] mapParameterBindings(Method businessMethod) {
+            Annotation[][] businessMethodParameterAnnotations = businessMethod.getParameterAnnotations();
+
+            int[] argumentIndexes = new int[parameterBindings.length];
+            for (int i = 0; i < parameterBindings.length; i++) {
+                argumentIndexes[i] = -1;
+
+                if (parameterBindings[i].length > 0) {
+                    for (int j = 0; j < businessMethodParameterAnnotations.length && argumentIndexes[i] == -1; j++) {
+                        List<Annotation> businessParameterAnnotations = Arrays.asList(businessMethodParameterAnnotations[j]);
+                        for (Annotation annotation : parameterBindings[i]) {
+                            if (businessParameterAnnotations.contains(annotation)) {
+                                argumentIndexes[i] = j;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return argumentIndexes;
+        }
+
+        private Object invokeAuthorizerMethod(Object reference, Object[] parameterValues) {
+            Method m = implementationMethod.getJavaMember();
+            try {
+                return m.invoke(reference, parameterValues);
+            } catch (InvocationTargetException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                } else if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                throw new RuntimeException("Exception invoking authorizer method [" + m.getDeclaringClass().getName()
+                        + "." + m.getName() + "]", ex.getCause());
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException("Exception invoking authorizer method [" + m.getDeclaringClass().getName()
+                        + "." + m.getName() + "]", ex);
             }
         }
 
-        @SuppressWarnings({ "unchecked", "rawtypes" })
         private synchronized void lookupTargetBean() {
             if (targetBean == null) {
                 Method m = implementationMethod.getJavaMember();
 
+                Bean<?> bean = null;
+
                 Set<Bean<?>> beans = beanManager.getBeans(m.getDeclaringClass());
                 if (beans.size() == 1) {
-                    targetBean = beans.iterator().next();
+                    bean = beans.iterator().next();
                 } else if (beans.isEmpty()) {
                     throw new IllegalStateException("Exception looking up authorizer method bean - "
                             + "no beans found for method [" + m.getDeclaringClass() + "." + m.getName() + "]");
@@ -163,36 +360,43 @@ public class SecurityExtension implements Extension {
                             + "multiple beans found for method [" + m.getDeclaringClass().getName() + "." + m.getName() + "]");
                 }
 
-                injectableMethod = new InjectableMethod(implementationMethod, targetBean, beanManager);
-            }
-        }
-
-        public boolean matchesBinding(Annotation annotation) {
-            if (!annotation.annotationType().equals(binding.annotationType())) {
-                return false;
-            }
-
-            for (Method m : annotation.annotationType().getDeclaredMethods()) {
-                if (m.isAnnotationPresent(Nonbinding.class))
-                    continue;
+                // Compute the parameter resolution plan once, rather than on every invocation
+                List<InjectionPoint> injectionPoints = Beans.createInjectionPoints(implementationMethod, bean,
+                        beanManager);
+                parameters = injectionPoints.toArray(new InjectionPoint[injectionPoints.size()]);
 
-                if (!memberValues.containsKey(m)) {
-                    return false;
+                if (!m.isAccessible()) {
+                    m.setAccessible(true);
                 }
 
-                try {
-                    Object value = m.invoke(annotation);
-                    if (!memberValues.get(m).equals(value)) {
-                        return false;
-                    }
-                } catch (InvocationTargetException ex) {
-                    throw new SecurityDefinitionException("Error reading security binding members", ex);
-                } catch (IllegalAccessException ex) {
-                    throw new SecurityDefinitionException("Error reading security binding members", ex);
+                // The client proxy of a normal-scoped bean may be safely shared between invocations
+                if (beanManager.isNormalScope(bean.getScope())) {
+                    cachedReferenceContext = beanManager.createCreationalContext(bean);
+                    cachedReference = beanManager.getReference(bean, m.getDeclaringClass(), cachedReferenceContext);
                 }
+
+                targetBean = bean;
             }
+        }
 
-            return true;
+        /**
+         * Releases the creational context of the cached client proxy, if any
+         */
+        private synchronized void release() {
+            if (cachedReferenceContext != null) {
+                cachedReferenceContext.release();
+                cachedReferenceContext = null;
+            }
+            cachedReference = null;
+        }
+
+        public boolean matchesBinding(Annotation annotation) {
+            return annotation.annotationType().equals(bindingKey.getAnnotationType())
+                    && bindingKey.equals(bindingKeys.create(annotation));
+        }
+
+        public SecurityBindingKey getBindingKey() {
+            return bindingKey;
         }
 
         public Method getImplementationMethod() {
@@ -201,19 +405,217 @@ public class SecurityExtension implements Extension {
 
         @Override
         public boolean equals(Object value) {
-            return false;
+            if (this == value) return true;
+            if (!(value instanceof Authorizer)) return false;
+
+            return getImplementationMethod().equals(((Authorizer) value).getImplementationMethod());
         }
 
         @Override
         public int hashCode() {
-            return 0;
+            return getImplementationMethod().hashCode();
+        }
+    }
+
+    /**
+     * The pending result of an authorization check performed by an asynchronous authorizer.  The result may be
+     * waited for on another thread (see waiter()), but the check must be completed on the invoking thread, as
+     * the decision is recorded in the request-scoped decision cache.
+     */
+    class PendingAuthorization {
+        private Future<?> result;
+        private Boolean decision;
+        private CreationalContext<?> creationalContext;
+        private AuthorizationDecisionCache cache;
+        private DecisionKey key;
+        private InvocationStatistics statistics;
+        private long start;
+
+        /**
+         * The value or failure of the completed result, written by the waiter
+         */
+        private Object outcome;
+        private Throwable failure;
+        private boolean waited;
+
+        PendingAuthorization(Boolean decision) {
+            this.decision = decision;
+        }
+
+        PendingAuthorization(Future<?> result, CreationalContext<?> creationalContext,
+                             AuthorizationDecisionCache cache, DecisionKey key, InvocationStatistics statistics,
+                             long start) {
+            this.result = result;
+            this.creationalContext = creationalContext;
+            this.cache = cache;
+            this.key = key;
+            this.statistics = statistics;
+            this.start = start;
+        }
+
+        /**
+         * Returns true if the decision is already known, e.g. because it was cached
+         */
+        public boolean isDecided() {
+            return decision != null;
+        }
+
+        /**
+         * Returns a task that waits for the result without completing the check, and returns this pending
+         * authorization once the result is available
+         */
+        public Callable<PendingAuthorization> waiter() {
+            return new Callable<PendingAuthorization>() {
+                public PendingAuthorization call() {
+                    waitForResult();
+                    return PendingAuthorization.this;
+                }
+            };
+        }
+
+        private void waitForResult() {
+            try {
+                outcome = result != null ? result.get() : null;
+            } catch (ExecutionException ex) {
+                failure = ex.getCause();
+            } catch (CancellationException ex) {
+                failure = ex;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure = ex;
+            }
+            waited = true;
+        }
+
+        /**
+         * Waits for the authorization check to complete
+         * 
+         * @return true if the authorization check passed
+         */
+        public boolean await() {
+            if (decision == null && !waited) {
+                waitForResult();
+            }
+            return complete();
+        }
+
+        /**
+         * Completes the authorization check, once the waiter has returned
+         *
+         * @return true if the authorization check passed
+         */
+        public boolean complete() {
+            if (decision != null) {
+                return decision;
+            }
+
+            try {
+                if (failure != null && statistics != null) {
+                    statistics.recordFailure(System.nanoTime() - start);
+                }
+
+                if (failure instanceof InterruptedException) {
+                    throw new AuthorizationException("Interrupted while waiting for authorization check");
+                } else if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw new RuntimeException("Exception performing asynchronous authorization check", failure);
+                }
+
+                decision = Boolean.TRUE.equals(outcome);
+
+                if (statistics != null) {
+                    statistics.record(System.nanoTime() - start, !decision);
+                }
+
+                if (cache != null) {
+                    cache.put(key, decision);
+                }
+
+                return decision;
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Abandons the authorization check if it hasn't completed yet
+         */
+        public void cancel() {
+            if (result != null && !result.isDone()) {
+                result.cancel(true);
+            }
+            release();
+        }
+
+        private void release() {
+            if (creationalContext != null) {
+                creationalContext.release();
+                creationalContext = null;
+            }
+        }
+    }
+
+    /**
+     * An authorizer applied to a specific secured method, with the authorizer's security parameter bindings
+     * resolved once against the parameters of that method
+     */
+    class MethodAuthorizer {
+        private final Authorizer authorizer;
+        private final int[] argumentIndexes;
+
+        MethodAuthorizer(Authorizer authorizer, Method businessMethod) {
+            this.authorizer = authorizer;
+            this.argumentIndexes = authorizer.mapParameterBindings(businessMethod);
+        }
+
+        public void authorize(InvocationContext context) {
+            authorizer.authorize(context, argumentIndexes);
+        }
+
+        public PendingAuthorization authorizeAsynchronously(InvocationContext context) {
+            return authorizer.authorizeAsynchronously(context, argumentIndexes);
+        }
+
+        public boolean isAsynchronous() {
+            return authorizer.isAsynchronous();
+        }
+
+        public Authorizer getAuthorizer() {
+            return authorizer;
         }
     }
 
     /**
-     * Contains all known authorizers
+     * Contains all known authorizers, indexed by the key of the security binding they provide
+     */
+    private Map<SecurityBindingKey, Set<Authorizer>> authorizers = new HashMap<SecurityBindingKey, Set<Authorizer>>();
+
+    /**
+     * Creates the keys of security bindings, caching the binding member metadata of each binding type
+     */
+    private final SecurityBindingKey.Factory bindingKeys = new SecurityBindingKey.Factory();
+
+    /**
+     * The threads that wait for the results of asynchronous authorizers, created when first needed
      */
-    private Set<Authorizer> authorizers = new HashSet<Authorizer>();
+    private ExecutorService authorizationWaiters;
+
+    /**
+     * The maximum number of threads that wait for the results of asynchronous authorizers
+     */
+    private int maxAuthorizationWaiters = Integer.getInteger("org.jboss.seam.security.maxAuthorizationWaiters", 16);
+
+    /**
+     * The client proxy of the request-scoped authorization decision cache
+     */
+    private volatile AuthorizationDecisionCache decisionCache;
+
+    private final AuthorizationMetrics metrics = new AuthorizationMetrics();
+
+    private ObjectName metricsName;
 
     /**
      * Contains all known secured types
@@ -221,9 +623,12 @@ public class SecurityExtension implements Extension {
     private Set<AnnotatedType<?>> securedTypes = new HashSet<AnnotatedType<?>>();
 
     /**
-     * A mapping between a secured method of a class and its authorizers
+     * A mapping between a secured method of a class and its authorizers. Each authorizer stack is compiled
+     * once and published as an immutable array, so that lookups performed by the security interceptor never
+     * need to lock.
      */
-    private Map<Class<?>, Map<Method, Set<Authorizer>>> methodAuthorizers = new HashMap<Class<?>, Map<Method, Set<Authorizer>>>();
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, MethodAuthorizer[]>> methodAuthorizers =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, MethodAuthorizer[]>>();
 
     /**
      * @param <X>
@@ -282,146 +687,452 @@ public class SecurityExtension implements Extension {
     public void validateBindings(@Observes AfterBeanDiscovery event, BeanManager beanManager) {
         this.beanManager = beanManager;
 
+        int compiledStacks = 0;
+
         for (final AnnotatedType<?> type : securedTypes) {
-            // Here we simply want to validate that each type that is annotated with
-            // one or more security bindings has a valid authorizer for each binding
+            // First validate that each type that is annotated with one or more
+            // security bindings has a valid authorizer for each binding
+            boolean classSecured = false;
+            boolean valid = true;
 
             for (final Annotation annotation : type.getJavaClass().getAnnotations()) {
-                boolean found = false;
-
                 if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
-                    // Validate the authorizer
-                    for (Authorizer auth : authorizers) {
-                        if (auth.matchesBinding(annotation)) {
-                            found = true;
-                            break;
-                        }
-                    }
+                    classSecured = true;
 
-                    if (!found) {
+                    // Validate the authorizer
+                    if (!authorizers.containsKey(bindingKeys.create(annotation))) {
                         event.addDefinitionError(new SecurityDefinitionException("Secured type "
                                 + type.getJavaClass().getName() + " has no matching authorizer method for security binding @"
                                 + annotation.annotationType().getName()));
+                        valid = false;
                     }
                 }
             }
 
+            if (!valid) {
+                continue;
+            }
+
+            // Then compile the authorizer stack of every secured method ahead of time, so that
+            // missing or ambiguous authorizers are reported as definition errors rather than
+            // on the first invocation of the method
             for (final AnnotatedMethod<?> method : type.getMethods()) {
-                for (final Annotation annotation : method.getAnnotations()) {
-                    if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
+                if (isSecuredMethod(method, classSecured)) {
+                    try {
                         registerSecuredMethod(method.getJavaMember(), type.getJavaClass());
-                        break;
+                        compiledStacks++;
+                    } catch (SecurityDefinitionException ex) {
+                        event.addDefinitionError(ex);
                     }
                 }
             }
         }
 
+        if (log.isDebugEnabled()) {
+            log.debug("Compiled " + compiledStacks + " authorizer stacks for " + securedTypes.size()
+                    + " secured types, using " + authorizers.size() + " security bindings");
+        }
+
         // Clear securedTypes, we don't require it any more
         securedTypes.clear();
         securedTypes = null;
     }
 
     /**
-     * This method is invoked by the security interceptor to obtain the authorizer stack for a secured method
+     * Returns true if invocations of the specified method will be intercepted by the security interceptor
+     * 
+     * @param method The method to check
+     * @param classSecured true if the method's type is annotated with a security binding
+     */
+    private boolean isSecuredMethod(AnnotatedMethod<?> method, boolean classSecured) {
+        Method m = method.getJavaMember();
+        if (Modifier.isStatic(m.getModifiers()) || Modifier.isPrivate(m.getModifiers())
+                || m.getDeclaringClass().equals(Object.class)) {
+            return false;
+        }
+
+        if (classSecured) {
+            return true;
+        }
+
+        for (final Annotation annotation : method.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if the specified class itself declares a security binding
+     */
+    private boolean declaresSecurityBinding(Class<?> cls) {
+        for (final Annotation annotation : cls.getDeclaredAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method is invoked by the security interceptor to obtain the authorizer stack for a secured method.
+     * The returned array must not be modified.
      * 
      * @param m
      * @return
      */
-    public Set<Authorizer> lookupAuthorizerStack(Method m, Class<?> targetClass) {
-        if (!methodAuthorizers.containsKey(targetClass) || !methodAuthorizers.get(targetClass).containsKey(m)) {
-            registerSecuredMethod(m, targetClass);
+    public MethodAuthorizer[] lookupAuthorizerStack(Method m, Class<?> targetClass) {
+        ConcurrentMap<Method, MethodAuthorizer[]> authz = methodAuthorizers.get(targetClass);
+        if (authz != null) {
+            MethodAuthorizer[] authorizerStack = authz.get(m);
+            if (authorizerStack != null) {
+                return authorizerStack;
+            }
         }
 
-        return methodAuthorizers.get(targetClass).get(m);
+        return registerSecuredMethod(m, targetClass);
     }
 
     void checkAuthorization(Annotation binding) {
-        boolean authorized = false;
+        Set<Authorizer> matching = authorizers.get(bindingKeys.create(binding));
 
-        for (Authorizer authorizer : authorizers) {
-            if (authorizer.matchesBinding(binding)) {
+        if (matching != null) {
+            for (Authorizer authorizer : matching) {
                 authorizer.authorize();
-                authorized = true;
             }
+        } else {
+            throw new AuthorizationException("Failed to process authorization request - no matching authorizer "
+                    + "method for specified binding type [" + binding.annotationType().getName() + "]");
         }
+    }
 
-        if (!authorized) {
-            throw new AuthorizationException("Failed to process authorization request - no matching authorizer "
-                    + "method for specified binding type [" + binding.annotationType().getClass().getName() + "]");
+    /**
+     * Checks each of the specified security binding sets, evaluating every distinct security binding only
+     * once no matter how many of the sets contain it.
+     * 
+     * @param bindingSets The security binding sets to check
+     * @return A bitset in which the bit at index i is set if every binding of the i-th binding set passed
+     */
+    BitSet checkAuthorization(List<? extends Collection<? extends Annotation>> bindingSets) {
+        BitSet results = new BitSet(bindingSets.size());
+        Map<SecurityBindingKey, Boolean> decisions = new HashMap<SecurityBindingKey, Boolean>();
+
+        for (int i = 0; i < bindingSets.size(); i++) {
+            boolean passed = true;
+
+            for (Annotation binding : bindingSets.get(i)) {
+                SecurityBindingKey bindingKey = bindingKeys.create(binding);
+
+                Boolean decision = decisions.get(bindingKey);
+                if (decision == null) {
+                    decision = isAuthorized(bindingKey);
+                    decisions.put(bindingKey, decision);
+                }
+
+                if (!decision) {
+                    passed = false;
+                    break;
+                }
+            }
+
+            if (passed) {
+                results.set(i);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns true if every authorizer for the specified security binding passes, or false if any of them
+     * fails or there is no matching authorizer
+     */
+    private boolean isAuthorized(SecurityBindingKey bindingKey) {
+        Set<Authorizer> matching = authorizers.get(bindingKey);
+        if (matching == null) {
+            return false;
         }
+
+        try {
+            for (Authorizer authorizer : matching) {
+                if (!authorizer.isAuthorized(null, null)) {
+                    return false;
+                }
+            }
+        } catch (AuthorizationException ex) {
+            return false;
+        }
+
+        return true;
     }
 
-    protected synchronized void registerSecuredMethod(Method method, Class<?> targetClass) {
-        if (!methodAuthorizers.containsKey(targetClass)) {
-            methodAuthorizers.put(targetClass, new HashMap<Method, Set<Authorizer>>());
+    /**
+     * Returns the authorization decision cache of the current request, or null if no request is active
+     */
+    private AuthorizationDecisionCache lookupDecisionCache() {
+        try {
+            if (!beanManager.getContext(RequestScoped.class).isActive()) {
+                return null;
+            }
+        } catch (ContextNotActiveException ex) {
+            return null;
         }
 
-        Map<Method, Set<Authorizer>> authz = methodAuthorizers.get(targetClass);
+        if (decisionCache == null) {
+            Bean<?> bean = beanManager.resolve(beanManager.getBeans(AuthorizationDecisionCache.class));
+            decisionCache = (AuthorizationDecisionCache) beanManager.getReference(bean,
+                    AuthorizationDecisionCache.class, beanManager.createCreationalContext(bean));
+        }
 
-        if (!authz.containsKey(method)) {
-            // Build a list of all security bindings on both the method and its declaring class
-            Set<Annotation> bindings = new HashSet<Annotation>();
+        return decisionCache;
+    }
 
-            Class<?> cls = targetClass;
-            while (!cls.equals(Object.class)) {
-                for (final Annotation annotation : cls.getAnnotations()) {
-                    if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
-                        bindings.add(annotation);
-                    }
+    /**
+     * Returns the number of authorization checks answered from the decision cache of their request
+     */
+    public long getDecisionCacheHits() {
+        return metrics.getDecisionCacheHits();
+    }
+
+    /**
+     * Returns the number of authorization checks by cacheable authorizers that had to be evaluated
+     */
+    public long getDecisionCacheMisses() {
+        return metrics.getDecisionCacheMisses();
+    }
+
+    /**
+     * Returns the authorization metrics of this deployment
+     */
+    public AuthorizationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the authorization metrics of this deployment with the platform MBean server
+     */
+    public void registerMetrics(@Observes AfterDeploymentValidation event) {
+        try {
+            metricsName = new ObjectName("org.jboss.seam.security:type=AuthorizationMetrics,id="
+                    + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (Exception ex) {
+            metricsName = null;
+            log.warn("Could not register authorization metrics MBean", ex);
+        }
+    }
+
+    /**
+     * Resolves the bean and computes the parameter resolution plan of every authorizer method once the
+     * deployment has been validated, so that the first invocation of each secured method doesn't pay for it.
+     * Authorizers whose bean can't be resolved are reported, and fail when they are first invoked.
+     */
+    public void resolveAuthorizers(@Observes AfterDeploymentValidation event) {
+        int resolved = 0;
+
+        for (Set<Authorizer> bindingAuthorizers : authorizers.values()) {
+            for (Authorizer authorizer : bindingAuthorizers) {
+                try {
+                    authorizer.lookupTargetBean();
+                    resolved++;
+                } catch (IllegalStateException ex) {
+                    log.warn(ex.getMessage());
                 }
-                cls = cls.getSuperclass();
             }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Resolved the beans and parameters of " + resolved + " authorizer methods");
+        }
+    }
+
+    public void releaseAuthorizers(@Observes BeforeShutdown event) {
+        for (Set<Authorizer> bindingAuthorizers : authorizers.values()) {
+            for (Authorizer authorizer : bindingAuthorizers) {
+                authorizer.release();
+            }
+        }
+    }
+
+    public void releaseBindingKeys(@Observes BeforeShutdown event) {
+        bindingKeys.clear();
+    }
+
+    /**
+     * Returns the executor used to wait for the results of asynchronous authorizers, so that they can be
+     * handled in the order in which they complete.  The executor has at most maxAuthorizationWaiters threads;
+     * once they are all busy, further results are waited for on the thread performing the authorization check.
+     */
+    synchronized ExecutorService getAuthorizationWaiters() {
+        if (authorizationWaiters == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxAuthorizationWaiters, maxAuthorizationWaiters,
+                    60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "SecurityAuthorizationWaiter");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            // Unlike CallerRunsPolicy, also runs the waiter if the executor has been shut down,
+                            // as the authorization check would otherwise never complete
+                            r.run();
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            authorizationWaiters = executor;
+        }
+        return authorizationWaiters;
+    }
+
+    public int getMaxAuthorizationWaiters() {
+        return maxAuthorizationWaiters;
+    }
+
+    /**
+     * Sets the maximum number of threads used to wait for the results of asynchronous authorizers. Takes
+     * effect immediately if the waiter threads have already been started.
+     */
+    public synchronized void setMaxAuthorizationWaiters(int maxAuthorizationWaiters) {
+        if (maxAuthorizationWaiters < 1) {
+            throw new IllegalArgumentException("maxAuthorizationWaiters must be at least 1");
+        }
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) authorizationWaiters;
+        if (executor != null) {
+            // Keep core <= maximum while resizing in either direction
+            if (maxAuthorizationWaiters > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxAuthorizationWaiters);
+                executor.setCorePoolSize(maxAuthorizationWaiters);
+            } else {
+                executor.setCorePoolSize(maxAuthorizationWaiters);
+                executor.setMaximumPoolSize(maxAuthorizationWaiters);
+            }
+        }
+        this.maxAuthorizationWaiters = maxAuthorizationWaiters;
+    }
+
+    public synchronized void shutdownAuthorizationWaiters(@Observes BeforeShutdown event) {
+        if (authorizationWaiters != null) {
+            authorizationWaiters.shutdownNow();
+            authorizationWaiters = null;
+        }
+    }
+
+    public void unregisterMetrics(@Observes BeforeShutdown event) {
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (Exception ex) {
+                log.warn("Could not unregister authorization metrics MBean", ex);
+            }
+            metricsName = null;
+        }
+    }
+
+    /**
+     * Compiles and publishes the authorizer stack for the specified secured method. If another thread has
+     * already published a stack for the same method, that stack is returned instead.
+     * 
+     * @param method
+     * @param targetClass
+     * @return the authorizer stack for the method
+     */
+    protected MethodAuthorizer[] registerSecuredMethod(Method method, Class<?> targetClass) {
+        ConcurrentMap<Method, MethodAuthorizer[]> authz = methodAuthorizers.get(targetClass);
+        if (authz == null) {
+            authz = new ConcurrentHashMap<Method, MethodAuthorizer[]>();
+            ConcurrentMap<Method, MethodAuthorizer[]> existing = methodAuthorizers.putIfAbsent(targetClass, authz);
+            if (existing != null) {
+                authz = existing;
+            }
+        }
+
+        MethodAuthorizer[] authorizerStack = authz.get(method);
+        if (authorizerStack == null) {
+            Class<?> superclass = targetClass.getSuperclass();
+
+            // A subclass that doesn't declare any security bindings of its own, such as a proxy class
+            // generated by the container, shares the authorizer stacks compiled for its superclass
+            if (superclass != null && !superclass.equals(Object.class) && !declaresSecurityBinding(targetClass)) {
+                authorizerStack = lookupAuthorizerStack(method, superclass);
+            } else {
+                authorizerStack = buildAuthorizerStack(method, targetClass);
+            }
+
+            MethodAuthorizer[] existing = authz.putIfAbsent(method, authorizerStack);
+            if (existing != null) {
+                authorizerStack = existing;
+            }
+        }
+
+        return authorizerStack;
+    }
 
-            for (final Annotation annotation : method.getAnnotations()) {
+    private MethodAuthorizer[] buildAuthorizerStack(Method method, Class<?> targetClass) {
+        // Build a list of all security bindings on both the method and its declaring class
+        Set<Annotation> bindings = new HashSet<Annotation>();
+
+        Class<?> cls = targetClass;
+        while (!cls.equals(Object.class)) {
+            for (final Annotation annotation : cls.getAnnotations()) {
                 if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
                     bindings.add(annotation);
                 }
             }
+            cls = cls.getSuperclass();
+        }
 
-            Set<Authorizer> authorizerStack = new HashSet<Authorizer>();
-
-            for (Annotation binding : bindings) {
-                boolean found = false;
-
-                // For each security binding, find a valid authorizer
-                for (Authorizer authorizer : authorizers) {
-                    if (authorizer.matchesBinding(binding)) {
-                        if (found) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("Matching authorizer methods found: [");
-                            sb.append(authorizer.getImplementationMethod().getDeclaringClass().getName());
-                            sb.append(".");
-                            sb.append(authorizer.getImplementationMethod().getName());
-                            sb.append("]");
-
-                            for (Authorizer a : authorizerStack) {
-                                if (a.matchesBinding(binding)) {
-                                    sb.append(", [");
-                                    sb.append(a.getImplementationMethod().getDeclaringClass().getName());
-                                    sb.append(".");
-                                    sb.append(a.getImplementationMethod().getName());
-                                    sb.append("]");
-                                }
-                            }
+        for (final Annotation annotation : method.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(SecurityBindingType.class)) {
+                bindings.add(annotation);
+            }
+        }
 
-                            throw new SecurityDefinitionException("Ambiguous authorizers found for security binding type [@"
-                                    + binding.annotationType().getName() + "] on method ["
-                                    + method.getDeclaringClass().getName() + "." + method.getName() + "]. " + sb.toString());
-                        }
+        Set<Authorizer> authorizerStack = new HashSet<Authorizer>();
 
-                        authorizerStack.add(authorizer);
-                        found = true;
-                    }
-                }
+        for (Annotation binding : bindings) {
+            // For each security binding, find a valid authorizer
+            Set<Authorizer> matching = authorizers.get(bindingKeys.create(binding));
+
+            if (matching == null) {
+                throw new SecurityDefinitionException("No matching authorizer found for security binding type [@"
+                        + binding.annotationType().getName() + "] on method [" + method.getDeclaringClass().getName() + "."
+                        + method.getName() + "].");
+            }
 
-                if (!found) {
-                    throw new SecurityDefinitionException("No matching authorizer found for security binding type [@"
-                            + binding.annotationType().getName() + "] on method [" + method.getDeclaringClass().getName() + "."
-                            + method.getName() + "].");
+            if (matching.size() > 1) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("Matching authorizer methods found: ");
+
+                boolean first = true;
+                for (Authorizer a : matching) {
+                    if (!first) sb.append(", ");
+                    sb.append("[");
+                    sb.append(a.getImplementationMethod().getDeclaringClass().getName());
+                    sb.append(".");
+                    sb.append(a.getImplementationMethod().getName());
+                    sb.append("]");
+                    first = false;
                 }
+
+                throw new SecurityDefinitionException("Ambiguous authorizers found for security binding type [@"
+                        + binding.annotationType().getName() + "] on method ["
+                        + method.getDeclaringClass().getName() + "." + method.getName() + "]. " + sb.toString());
             }
-            authz.put(method, authorizerStack);
+
+            authorizerStack.addAll(matching);
+        }
+
+        MethodAuthorizer[] methodAuthorizerStack = new MethodAuthorizer[authorizerStack.size()];
+        int i = 0;
+        for (Authorizer authorizer : authorizerStack) {
+            methodAuthorizerStack[i++] = new MethodAuthorizer(authorizer, method);
         }
+        return methodAuthorizerStack;
     }
 
     /**
@@ -432,10 +1143,11 @@ public class SecurityExtension implements Extension {
      * @throws InvocationTargetException
      */
     protected void registerAuthorizer(AnnotatedMethod<?> m) {
-        if (!m.getJavaMember().getReturnType().equals(Boolean.class) && !m.getJavaMember().getReturnType().equals(Boolean.TYPE)) {
+        if (!m.getJavaMember().getReturnType().equals(Boolean.class) && !m.getJavaMember().getReturnType().equals(Boolean.TYPE)
+                && !returnsFutureBoolean(m.getJavaMember())) {
             throw new SecurityDefinitionException("Invalid authorizer method ["
                     + m.getJavaMember().getDeclaringClass().getName() + "." + m.getJavaMember().getName()
-                    + "] - does not return a boolean.");
+                    + "] - does not return a boolean or a Future<Boolean>.");
         }
 
         // Locate the binding type
@@ -453,7 +1165,22 @@ public class SecurityExtension implements Extension {
         }
 
         Authorizer authorizer = new Authorizer(binding, m);
-        authorizers.add(authorizer);
+
+        Set<Authorizer> matching = authorizers.get(authorizer.getBindingKey());
+        if (matching == null) {
+            matching = new HashSet<Authorizer>();
+            authorizers.put(authorizer.getBindingKey(), matching);
+        }
+        matching.add(authorizer);
+    }
+
+    private boolean returnsFutureBoolean(Method m) {
+        if (!m.getReturnType().equals(Future.class) || !(m.getGenericReturnType() instanceof ParameterizedType)) {
+            return false;
+        }
+
+        Type[] typeArguments = ((ParameterizedType) m.getGenericReturnType()).getActualTypeArguments();
+        return typeArguments.length == 1 && Boolean.class.equals(typeArguments[0]);
     }
 
     /**
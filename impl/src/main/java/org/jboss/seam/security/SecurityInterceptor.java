@@ -2,13 +2,19 @@ package org.jboss.seam.security;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 
 import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.Interceptor;
 import javax.interceptor.InvocationContext;
 
-import org.jboss.seam.security.SecurityExtension.Authorizer;
+import org.jboss.seam.security.SecurityExtension.MethodAuthorizer;
+import org.jboss.seam.security.SecurityExtension.PendingAuthorization;
 
 /**
  * Provides authorization services for component invocations.
@@ -28,10 +34,79 @@ public class SecurityInterceptor implements Serializable {
     public Object aroundInvoke(InvocationContext invocation) throws Exception {
         Method method = invocation.getMethod();
 
-        for (Authorizer authorizer : extension.lookupAuthorizerStack(method, invocation.getTarget().getClass())) {
-            authorizer.authorize(invocation);
+        MethodAuthorizer[] authorizers = extension.lookupAuthorizerStack(method, invocation.getTarget().getClass());
+
+        // Asynchronous authorizers are started first so that they run while the remaining checks are performed
+        List<PendingAuthorization> pending = null;
+
+        try {
+            for (MethodAuthorizer authorizer : authorizers) {
+                if (authorizer.isAsynchronous()) {
+                    if (pending == null) {
+                        pending = new ArrayList<PendingAuthorization>(authorizers.length);
+                    }
+                    pending.add(authorizer.authorizeAsynchronously(invocation));
+                }
+            }
+
+            for (MethodAuthorizer authorizer : authorizers) {
+                if (!authorizer.isAsynchronous()) {
+                    authorizer.authorize(invocation);
+                }
+            }
+
+            if (pending != null) {
+                awaitAuthorizations(pending);
+            }
+        } finally {
+            if (pending != null) {
+                for (PendingAuthorization authorization : pending) {
+                    authorization.cancel();
+                }
+            }
         }
 
         return invocation.proceed();
     }
+
+    /**
+     * Completes the pending authorizations in the order in which their results become available, failing as
+     * soon as one of them is denied
+     */
+    void awaitAuthorizations(List<PendingAuthorization> pending) {
+        CompletionService<PendingAuthorization> completion = null;
+        int outstanding = 0;
+
+        for (PendingAuthorization authorization : pending) {
+            if (authorization.isDecided()) {
+                if (!authorization.complete()) {
+                    throw new AuthorizationException("Authorization check failed");
+                }
+            } else {
+                if (completion == null) {
+                    completion = new ExecutorCompletionService<PendingAuthorization>(
+                            extension.getAuthorizationWaiters());
+                }
+                completion.submit(authorization.waiter());
+                outstanding++;
+            }
+        }
+
+        for (; outstanding > 0; outstanding--) {
+            PendingAuthorization authorization;
+            try {
+                authorization = completion.take().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AuthorizationException("Interrupted while waiting for authorization check");
+            } catch (ExecutionException ex) {
+                // The waiters catch every failure, to rethrow it on this thread
+                throw new RuntimeException("Exception waiting for authorization check", ex.getCause());
+            }
+
+            if (!authorization.complete()) {
+                throw new AuthorizationException("Authorization check failed");
+            }
+        }
+    }
 }
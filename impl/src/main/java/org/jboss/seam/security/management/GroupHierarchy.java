@@ -0,0 +1,105 @@
+package org.jboss.seam.security.management;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.RelationshipManager;
+import org.picketlink.idm.common.exception.IdentityException;
+
+/**
+ * Resolves nested group memberships, i.e. the groups that a user belongs to through the groups that they
+ * are a direct member of.
+ */
+public final class GroupHierarchy {
+    private GroupHierarchy() {
+    }
+
+    /**
+     * Looks up the groups that contain a set of groups
+     */
+    public interface ParentGroupFinder {
+        /**
+         * Returns the groups that directly contain any of the specified groups
+         *
+         * @param groups The groups to find the parents of
+         * @return The parent groups, in any order and possibly with duplicates
+         */
+        Collection<Group> findParentGroups(Collection<Group> groups) throws IdentityException;
+    }
+
+    /**
+     * Returns the transitive closure of the specified groups, finding the parents of each group through the
+     * relationship manager.  As the relationship manager only finds the parents of one group at a time, this
+     * costs a query per group in the closure.
+     *
+     * @param relationshipManager The relationship manager used to look up parent groups
+     * @param groups The groups that the user is a direct member of
+     * @return The groups in the closure, in breadth first order
+     * @see #resolveClosure(ParentGroupFinder, Collection)
+     */
+    public static Collection<Group> resolveClosure(RelationshipManager relationshipManager,
+                                                   Collection<Group> groups) throws IdentityException {
+        return resolveClosure(parentGroupFinder(relationshipManager), groups);
+    }
+
+    /**
+     * Returns a finder that looks up the parents of each group through the relationship manager, for identity
+     * stores that can't find the parents of several groups at once
+     */
+    public static ParentGroupFinder parentGroupFinder(final RelationshipManager relationshipManager) {
+        return new ParentGroupFinder() {
+            public Collection<Group> findParentGroups(Collection<Group> groups) throws IdentityException {
+                List<Group> parents = new ArrayList<Group>();
+                for (Group group : groups) {
+                    parents.addAll(relationshipManager.findAssociatedGroups(group, null, false, false));
+                }
+                return parents;
+            }
+        };
+    }
+
+    /**
+     * Returns the transitive closure of the specified groups, i.e. the groups themselves plus every group
+     * that contains any of them, directly or indirectly.  The hierarchy is walked breadth first, one level at
+     * a time: the parents of all of the groups discovered at a level are looked up with a single call to the
+     * finder, and each group is only looked up once, so cycles in the hierarchy are harmless.
+     *
+     * @param finder The finder used to look up parent groups
+     * @param groups The groups that the user is a direct member of
+     * @return The groups in the closure, in breadth first order
+     */
+    public static Collection<Group> resolveClosure(ParentGroupFinder finder, Collection<Group> groups)
+            throws IdentityException {
+        Map<String, Group> closure = new LinkedHashMap<String, Group>();
+        List<Group> level = new ArrayList<Group>();
+
+        for (Group group : groups) {
+            if (closure.put(keyOf(group), group) == null) {
+                level.add(group);
+            }
+        }
+
+        while (!level.isEmpty()) {
+            List<Group> next = new ArrayList<Group>();
+
+            for (Group parent : finder.findParentGroups(level)) {
+                if (!closure.containsKey(keyOf(parent))) {
+                    closure.put(keyOf(parent), parent);
+                    next.add(parent);
+                }
+            }
+
+            level = next;
+        }
+
+        return closure.values();
+    }
+
+    private static String keyOf(Group group) {
+        return group.getGroupType() + ":" + group.getName();
+    }
+}
@@ -1,7 +1,5 @@
 package org.jboss.seam.security.management;
 
-import java.util.Collection;
-
 import javax.enterprise.inject.Model;
 import javax.inject.Inject;
 
@@ -10,11 +8,9 @@ import org.jboss.seam.security.Authenticator;
 import org.jboss.seam.security.BaseAuthenticator;
 import org.jboss.seam.security.Credentials;
 import org.jboss.seam.security.Identity;
+import org.jboss.seam.security.management.picketlink.JpaParentGroupFinder;
 import org.picketlink.idm.api.Credential;
-import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.IdentitySession;
-import org.picketlink.idm.api.Role;
-import org.picketlink.idm.api.RoleType;
 import org.picketlink.idm.api.User;
 import org.picketlink.idm.common.exception.FeatureNotSupportedException;
 import org.picketlink.idm.common.exception.IdentityException;
@@ -36,6 +32,8 @@ class IdmAuthenticator extends BaseAuthenticator implements Authenticator {
     Credentials credentials;
     @Inject
     Identity identity;
+    @Inject
+    JpaParentGroupFinder parentGroupFinder;
 
     public void authenticate() {
         if (identitySession != null) {
@@ -46,20 +44,11 @@ class IdmAuthenticator extends BaseAuthenticator implements Authenticator {
                         u, new Credential[]{credentials.getCredential()});
 
                 if (success) {
-                    Collection<RoleType> roleTypes = identitySession.getRoleManager()
-                            .findUserRoleTypes(u);
+                    // Nested groups are resolved a level at a time when the JPA identity store is in use
+                    MembershipLoader.load(identitySession, u, identity, parentGroupFinder.isAvailable() ?
+                            parentGroupFinder : GroupHierarchy.parentGroupFinder(
+                                    identitySession.getRelationshipManager()));
 
-                    for (RoleType roleType : roleTypes) {
-                        for (Role role : identitySession.getRoleManager().findRoles(u, roleType)) {
-                            identity.addRole(role.getRoleType().getName(),
-                                    role.getGroup().getName(), role.getGroup().getGroupType());
-                        }
-                    }
-                    
-                    for (Group g : identitySession.getRelationshipManager().findAssociatedGroups(u)) {
-                        identity.addGroup(g.getName(), g.getGroupType());
-                    }
-                    
                     setUser(u);
                     setStatus(AuthenticationStatus.SUCCESS);
                     return;
@@ -0,0 +1,92 @@
+package org.jboss.seam.security.management;
+
+import java.util.Collection;
+
+import org.jboss.seam.security.BulkMembershipIdentity;
+import org.jboss.seam.security.Identity;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.IdentitySession;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.RoleType;
+import org.picketlink.idm.api.User;
+import org.picketlink.idm.common.exception.FeatureNotSupportedException;
+import org.picketlink.idm.common.exception.IdentityException;
+
+/**
+ * Loads the roles and groups of an identity-managed user into the Identity during authentication.
+ */
+public final class MembershipLoader {
+    private MembershipLoader() {
+    }
+
+    /**
+     * Grants the specified user's roles and direct group memberships to the identity
+     *
+     * @param session  The identity session used to query the user's roles and groups
+     * @param user     The user being authenticated
+     * @param identity The identity to grant the roles and groups to
+     */
+    public static void load(IdentitySession session, User user, Identity identity)
+            throws IdentityException, FeatureNotSupportedException {
+        load(session, user, identity, false);
+    }
+
+    /**
+     * Grants the specified user's roles and groups to the identity
+     *
+     * @param session      The identity session used to query the user's roles and groups
+     * @param user         The user being authenticated
+     * @param identity     The identity to grant the roles and groups to
+     * @param nestedGroups If true, the groups that the user's groups are themselves members of are also granted
+     */
+    public static void load(IdentitySession session, User user, Identity identity, boolean nestedGroups)
+            throws IdentityException, FeatureNotSupportedException {
+        load(session, user, identity, nestedGroups ?
+                GroupHierarchy.parentGroupFinder(session.getRelationshipManager()) : null);
+    }
+
+    /**
+     * Grants the specified user's roles and groups to the identity
+     *
+     * @param session           The identity session used to query the user's roles and groups
+     * @param user              The user being authenticated
+     * @param identity          The identity to grant the roles and groups to
+     * @param parentGroupFinder If not null, the groups that the user's groups are themselves members of are
+     *                          found with it, a level of the group hierarchy at a time, and also granted
+     */
+    public static void load(IdentitySession session, User user, Identity identity,
+                            GroupHierarchy.ParentGroupFinder parentGroupFinder)
+            throws IdentityException, FeatureNotSupportedException {
+        // A null role type matches every role type, so all of the user's roles are found with a single query
+        addRoles(identity, session.getRoleManager().findRoles(user, (RoleType) null));
+
+        Collection<Group> groups = session.getRelationshipManager().findAssociatedGroups(user);
+        if (parentGroupFinder != null) {
+            groups = GroupHierarchy.resolveClosure(parentGroupFinder, groups);
+        }
+        addGroups(identity, groups);
+    }
+
+    private static void addRoles(Identity identity, Collection<? extends Role> roles) {
+        if (identity instanceof BulkMembershipIdentity) {
+            ((BulkMembershipIdentity) identity).addRoles(roles);
+            return;
+        }
+
+        for (Role role : roles) {
+            identity.addRole(role.getRoleType().getName(), role.getGroup().getName(),
+                    role.getGroup().getGroupType());
+        }
+    }
+
+    private static void addGroups(Identity identity, Collection<? extends Group> groups) {
+        if (identity instanceof BulkMembershipIdentity) {
+            ((BulkMembershipIdentity) identity).addGroups(groups);
+            return;
+        }
+
+        for (Group group : groups) {
+            identity.addGroup(group.getName(), group.getGroupType());
+        }
+    }
+}
@@ -49,6 +49,11 @@ public class IdentitySessionProducer implements EventListener {
     private String defaultRealm = "default";
     private String defaultAttributeStoreId;
     private String defaultIdentityStoreId;
+
+    /**
+     * The identity object type of users
+     */
+    private String userIdentityType = "USER";
     
     IdentityConfigurationMetaData metadata; 
     
@@ -89,7 +94,7 @@ public class IdentitySessionProducer implements EventListener {
         // Create the default realm
         RealmConfigurationMetaDataImpl realm = new RealmConfigurationMetaDataImpl();
         realm.setId(getDefaultRealm());
-        realm.setIdentityMapping("USER");
+        realm.setIdentityMapping(userIdentityType);
         //realm.setGroupTypeMappings(groupTypeMappings)
         realm.setOptions(new HashMap<String, List<String>>());
         List<RealmConfigurationMetaData> realms = new ArrayList<RealmConfigurationMetaData>();
@@ -108,7 +113,7 @@ public class IdentitySessionProducer implements EventListener {
 
             IdentityStoreMappingMetaDataImpl mapping = new IdentityStoreMappingMetaDataImpl();
             List<String> identityObjectTypes = new ArrayList<String>();
-            identityObjectTypes.add("USER");
+            identityObjectTypes.add(userIdentityType);
             identityObjectTypes.add("GROUP");
             mapping.setIdentityObjectTypeMappings(identityObjectTypes);
             mapping.setIdentityStoreId(defaultIdentityStoreId != null ? defaultIdentityStoreId : defaultStoreId);
@@ -190,4 +195,12 @@ public class IdentitySessionProducer implements EventListener {
     public void setDefaultIdentityStoreId(String defaultIdentityStoreId) {
         this.defaultIdentityStoreId = defaultIdentityStoreId;
     }
+
+    public String getUserIdentityType() {
+        return userIdentityType;
+    }
+
+    public void setUserIdentityType(String userIdentityType) {
+        this.userIdentityType = userIdentityType;
+    }
 }
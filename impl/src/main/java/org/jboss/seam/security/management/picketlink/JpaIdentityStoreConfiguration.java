@@ -189,9 +189,9 @@ public class JpaIdentityStoreConfiguration extends IdentityStoreConfiguration im
     private Map<String, MappedAttribute> attributeProperties = new HashMap<String, MappedAttribute>();
     // Property keys
     static final String PROPERTY_IDENTITY_ID = "IDENTITY_ID";
-    static final String PROPERTY_IDENTITY_NAME = "IDENTITY_NAME";
-    static final String PROPERTY_IDENTITY_TYPE = "IDENTITY_TYPE";
-    static final String PROPERTY_IDENTITY_TYPE_NAME = "IDENTITY_TYPE_NAME";
+    public static final String PROPERTY_IDENTITY_NAME = "IDENTITY_NAME";
+    public static final String PROPERTY_IDENTITY_TYPE = "IDENTITY_TYPE";
+    public static final String PROPERTY_IDENTITY_TYPE_NAME = "IDENTITY_TYPE_NAME";
     static final String PROPERTY_CREDENTIAL_VALUE = "CREDENTIAL_VALUE";
     static final String PROPERTY_CREDENTIAL_IDENTITY = "CREDENTIAL_IDENTITY";
     static final String PROPERTY_CREDENTIAL_TYPE = "CREDENTIAL_TYPE";
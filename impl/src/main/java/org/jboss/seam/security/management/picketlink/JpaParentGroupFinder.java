@@ -0,0 +1,116 @@
+package org.jboss.seam.security.management.picketlink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.jboss.seam.security.management.GroupHierarchy;
+import org.jboss.solder.properties.Property;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+import org.picketlink.idm.impl.api.session.managers.RelationshipManagerImpl;
+
+import static org.jboss.seam.security.management.picketlink.JpaIdentityStoreConfiguration.*;
+
+/**
+ * Finds the parent groups of a set of groups in the JPA identity store with a single query, so that nested
+ * group memberships are resolved with a query per level of the group hierarchy instead of a query per group.
+ *
+ * @see GroupHierarchy#resolveClosure(GroupHierarchy.ParentGroupFinder, Collection)
+ */
+@ApplicationScoped
+public class JpaParentGroupFinder implements GroupHierarchy.ParentGroupFinder {
+
+    @Inject
+    JpaIdentityStoreConfiguration configuration;
+
+    @Inject
+    Instance<EntityManager> entityManagerInstance;
+
+    /**
+     * Returns true if the JPA identity store is configured with a relationship entity, and an entity manager
+     * is available to query it
+     */
+    public boolean isAvailable() {
+        return configuration.isConfigured() && configuration.getRelationshipClass() != null &&
+                !entityManagerInstance.isUnsatisfied() && !entityManagerInstance.isAmbiguous();
+    }
+
+    public Collection<Group> findParentGroups(Collection<Group> groups) throws IdentityException {
+        if (groups.isEmpty()) return new ArrayList<Group>();
+
+        Map<String, Property<Object>> properties = configuration.getIdentityModelProperties();
+        String nameProperty = properties.get(PROPERTY_IDENTITY_NAME).getName();
+        String typeProperty = properties.get(PROPERTY_IDENTITY_TYPE).getName();
+        if (properties.containsKey(PROPERTY_IDENTITY_TYPE_NAME)) {
+            typeProperty += "." + properties.get(PROPERTY_IDENTITY_TYPE_NAME).getName();
+        }
+
+        String relationshipType = "r." + properties.get(PROPERTY_RELATIONSHIP_TYPE).getName();
+        if (properties.containsKey(PROPERTY_RELATIONSHIP_TYPE_NAME)) {
+            relationshipType += "." + properties.get(PROPERTY_RELATIONSHIP_TYPE_NAME).getName();
+        }
+        String member = "r." + properties.get(PROPERTY_RELATIONSHIP_TO).getName();
+
+        // Group names by group type
+        Map<String, Set<String>> groupNames = new LinkedHashMap<String, Set<String>>();
+        for (Group group : groups) {
+            Set<String> names = groupNames.get(group.getGroupType());
+            if (names == null) {
+                names = new HashSet<String>();
+                groupNames.put(group.getGroupType(), names);
+            }
+            names.add(group.getName());
+        }
+
+        StringBuilder q = new StringBuilder();
+        q.append("select distinct r.").append(properties.get(PROPERTY_RELATIONSHIP_FROM).getName());
+        q.append(" from ").append(getEntityName(configuration.getRelationshipClass()));
+        q.append(" r where ").append(relationshipType).append(" = :membership and (");
+        for (int i = 0; i < groupNames.size(); i++) {
+            if (i > 0) q.append(" or ");
+            q.append("(").append(member).append(".").append(nameProperty).append(" in (:groups").append(i);
+            q.append(") and ").append(member).append(".").append(typeProperty).append(" = :groupType");
+            q.append(i).append(")");
+        }
+        q.append(")");
+
+        Query query = entityManagerInstance.get().createQuery(q.toString());
+        query.setParameter("membership", RelationshipManagerImpl.MEMBER.getName());
+
+        int i = 0;
+        for (Map.Entry<String, Set<String>> entry : groupNames.entrySet()) {
+            query.setParameter("groups" + i, entry.getValue());
+            query.setParameter("groupType" + i, entry.getKey());
+            i++;
+        }
+
+        List<Group> parents = new ArrayList<Group>();
+        for (Object identity : query.getResultList()) {
+            Object type = properties.get(PROPERTY_IDENTITY_TYPE).getValue(identity);
+            if (properties.containsKey(PROPERTY_IDENTITY_TYPE_NAME)) {
+                type = properties.get(PROPERTY_IDENTITY_TYPE_NAME).getValue(type);
+            }
+            parents.add(new SimpleGroup(properties.get(PROPERTY_IDENTITY_NAME).getValue(identity).toString(),
+                    type.toString()));
+        }
+        return parents;
+    }
+
+    private static String getEntityName(Class<?> entityClass) {
+        String name = entityClass.getAnnotation(Entity.class).name();
+        return "".equals(name) ? entityClass.getSimpleName() : name;
+    }
+}
@@ -0,0 +1,138 @@
+package org.jboss.seam.security.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects invocation counts, denial counts and latencies for the authorizers of a deployment.  Recording
+ * is disabled by default and may be switched on and off at runtime, either programmatically or through the
+ * AuthorizationMetricsMBean registered by the security extension.
+ */
+public class AuthorizationMetrics implements AuthorizationMetricsMBean {
+    private volatile boolean enabled = Boolean.getBoolean("org.jboss.seam.security.metrics");
+
+    private final List<InvocationStatistics> statistics = new CopyOnWriteArrayList<InvocationStatistics>();
+
+    private final DecisionCacheStatistics decisionCache = new DecisionCacheStatistics();
+
+    /**
+     * Creates the statistics for an authorizer method
+     * 
+     * @param bindingType The security binding type that the authorizer method secures
+     * @param authorizer The name of the authorizer method
+     */
+    public InvocationStatistics register(Class<?> bindingType, String authorizer) {
+        InvocationStatistics result = new InvocationStatistics(bindingType.getName(), authorizer);
+        statistics.add(result);
+        return result;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void reset() {
+        for (InvocationStatistics s : statistics) {
+            s.reset();
+        }
+        decisionCache.reset();
+    }
+
+    /**
+     * Records an authorization check answered from the decision cache of its request, if recording is enabled
+     */
+    public void recordDecisionCacheHit() {
+        if (enabled) {
+            decisionCache.recordHit();
+        }
+    }
+
+    /**
+     * Records an authorization check by a cacheable authorizer that had to be evaluated, if recording is enabled
+     */
+    public void recordDecisionCacheMiss() {
+        if (enabled) {
+            decisionCache.recordMiss();
+        }
+    }
+
+    public long getDecisionCacheHits() {
+        return decisionCache.getHits();
+    }
+
+    public long getDecisionCacheMisses() {
+        return decisionCache.getMisses();
+    }
+
+    public long getInvocations() {
+        long invocations = 0;
+        for (InvocationStatistics s : statistics) {
+            invocations += s.snapshot().getInvocations();
+        }
+        return invocations;
+    }
+
+    public long getDenials() {
+        long denials = 0;
+        for (InvocationStatistics s : statistics) {
+            denials += s.snapshot().getDenials();
+        }
+        return denials;
+    }
+
+    public long getFailures() {
+        long failures = 0;
+        for (InvocationStatistics s : statistics) {
+            failures += s.snapshot().getFailures();
+        }
+        return failures;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of each authorizer method
+     */
+    public List<StatisticsSnapshot> getAuthorizerSnapshots() {
+        List<StatisticsSnapshot> snapshots = new ArrayList<StatisticsSnapshot>(statistics.size());
+        for (InvocationStatistics s : statistics) {
+            snapshots.add(s.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of each security binding type, combining all of its authorizers
+     */
+    public Map<String, StatisticsSnapshot> getBindingSnapshots() {
+        Map<String, StatisticsSnapshot> snapshots = new LinkedHashMap<String, StatisticsSnapshot>();
+        for (InvocationStatistics s : statistics) {
+            StatisticsSnapshot existing = snapshots.get(s.getBindingType());
+            snapshots.put(s.getBindingType(), existing == null ? s.snapshot(s.getBindingType()) :
+                    existing.merge(s.getBindingType(), s.snapshot()));
+        }
+        return snapshots;
+    }
+
+    public String[] getAuthorizerStatistics() {
+        List<StatisticsSnapshot> snapshots = getAuthorizerSnapshots();
+        String[] result = new String[snapshots.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = snapshots.get(i).toString();
+        }
+        return result;
+    }
+
+    public String[] getBindingStatistics() {
+        List<String> result = new ArrayList<String>();
+        for (StatisticsSnapshot snapshot : getBindingSnapshots().values()) {
+            result.add(snapshot.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
@@ -0,0 +1,35 @@
+package org.jboss.seam.security.metrics;
+
+/**
+ * Management interface for the authorization metrics of a deployment
+ */
+public interface AuthorizationMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+
+    long getInvocations();
+
+    long getDenials();
+
+    /**
+     * Returns the number of authorizer invocations that threw an exception
+     */
+    long getFailures();
+
+    long getDecisionCacheHits();
+
+    long getDecisionCacheMisses();
+
+    /**
+     * Returns a summary line for each authorizer method
+     */
+    String[] getAuthorizerStatistics();
+
+    /**
+     * Returns a summary line for each security binding type
+     */
+    String[] getBindingStatistics();
+}
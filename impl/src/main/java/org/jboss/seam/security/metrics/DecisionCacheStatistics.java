@@ -0,0 +1,78 @@
+package org.jboss.seam.security.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the hits and misses of the request-scoped authorization decision caches of a deployment.
+ * <p/>
+ * Like InvocationStatistics, the counters are striped across threads and only allocated once the first
+ * lookup is recorded.
+ */
+public final class DecisionCacheStatistics {
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+
+    /**
+     * Each stripe is padded to 8 longs so that stripes don't share a cache line
+     */
+    private static final int STRIPE_WIDTH = 8;
+
+    private volatile AtomicLongArray counters;
+
+    DecisionCacheStatistics() {
+    }
+
+    public void recordHit() {
+        record(HITS);
+    }
+
+    public void recordMiss() {
+        record(MISSES);
+    }
+
+    private void record(int outcome) {
+        AtomicLongArray c = counters;
+        if (c == null) {
+            c = allocateCounters();
+        }
+        c.incrementAndGet(InvocationStatistics.stripe() * STRIPE_WIDTH + outcome);
+    }
+
+    private synchronized AtomicLongArray allocateCounters() {
+        if (counters == null) {
+            counters = new AtomicLongArray(InvocationStatistics.STRIPES * STRIPE_WIDTH);
+        }
+        return counters;
+    }
+
+    public long getHits() {
+        return sum(HITS);
+    }
+
+    public long getMisses() {
+        return sum(MISSES);
+    }
+
+    private long sum(int outcome) {
+        long total = 0;
+        AtomicLongArray c = counters;
+        if (c != null) {
+            for (int stripe = 0; stripe < InvocationStatistics.STRIPES; stripe++) {
+                total += c.get(stripe * STRIPE_WIDTH + outcome);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Discards all recorded lookups
+     */
+    public void reset() {
+        AtomicLongArray c = counters;
+        if (c != null) {
+            for (int i = 0; i < c.length(); i++) {
+                c.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.jboss.seam.security.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the invocation count, denial count, failure count and latency distribution of a single authorizer.
+ * <p/>
+ * The counters are striped across threads so that concurrent invocations rarely contend on the same
+ * cache line, and are only allocated once the first invocation is recorded, so that they cost nothing
+ * while metrics are disabled.  Latencies are counted in power-of-two buckets, starting at 1 microsecond.
+ */
+public final class InvocationStatistics {
+    /**
+     * The number of latency buckets; the last bucket holds every latency greater than 2^(BUCKETS - 2) microseconds
+     */
+    public static final int BUCKETS = 24;
+
+    private static final int INVOCATIONS = 0;
+    private static final int DENIALS = 1;
+    private static final int FAILURES = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int FIRST_BUCKET = 4;
+
+    /**
+     * Each stripe is padded to a multiple of 8 longs so that stripes don't share a cache line
+     */
+    private static final int STRIPE_WIDTH = (FIRST_BUCKET + BUCKETS + 7) & ~7;
+
+    /**
+     * The number of stripes, a power of two
+     */
+    static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final String bindingType;
+    private final String authorizer;
+    private volatile AtomicLongArray counters;
+
+    InvocationStatistics(String bindingType, String authorizer) {
+        this.bindingType = bindingType;
+        this.authorizer = authorizer;
+    }
+
+    public String getBindingType() {
+        return bindingType;
+    }
+
+    public String getAuthorizer() {
+        return authorizer;
+    }
+
+    /**
+     * Records a single authorizer invocation
+     * 
+     * @param nanos The time taken by the invocation
+     * @param denied True if the authorizer denied access
+     */
+    public void record(long nanos, boolean denied) {
+        record(nanos, denied ? DENIALS : -1);
+    }
+
+    /**
+     * Records a single authorizer invocation that threw an exception instead of making a decision
+     *
+     * @param nanos The time taken by the invocation
+     */
+    public void recordFailure(long nanos) {
+        record(nanos, FAILURES);
+    }
+
+    private void record(long nanos, int outcome) {
+        AtomicLongArray c = counters;
+        if (c == null) {
+            c = allocateCounters();
+        }
+
+        int offset = stripe() * STRIPE_WIDTH;
+
+        c.incrementAndGet(offset + INVOCATIONS);
+        if (outcome != -1) {
+            c.incrementAndGet(offset + outcome);
+        }
+        c.addAndGet(offset + TOTAL_NANOS, nanos);
+        c.incrementAndGet(offset + FIRST_BUCKET + bucketOf(nanos));
+    }
+
+    /**
+     * Returns the stripe of the current thread
+     */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private synchronized AtomicLongArray allocateCounters() {
+        if (counters == null) {
+            counters = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the upper bound (exclusive) in nanoseconds of the specified latency bucket, or Long.MAX_VALUE for
+     * the last bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1000L << bucket;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    /**
+     * Returns a point in time copy of these statistics
+     */
+    public StatisticsSnapshot snapshot() {
+        return snapshot(authorizer);
+    }
+
+    StatisticsSnapshot snapshot(String name) {
+        long invocations = 0;
+        long denials = 0;
+        long failures = 0;
+        long totalNanos = 0;
+        long[] buckets = new long[BUCKETS];
+
+        AtomicLongArray c = counters;
+        if (c != null) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                int offset = stripe * STRIPE_WIDTH;
+                invocations += c.get(offset + INVOCATIONS);
+                denials += c.get(offset + DENIALS);
+                failures += c.get(offset + FAILURES);
+                totalNanos += c.get(offset + TOTAL_NANOS);
+                for (int i = 0; i < BUCKETS; i++) {
+                    buckets[i] += c.get(offset + FIRST_BUCKET + i);
+                }
+            }
+        }
+
+        return new StatisticsSnapshot(name, invocations, denials, failures, totalNanos, buckets);
+    }
+
+    /**
+     * Discards all recorded invocations
+     */
+    public void reset() {
+        AtomicLongArray c = counters;
+        if (c != null) {
+            for (int i = 0; i < c.length(); i++) {
+                c.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.jboss.seam.security.metrics;
+
+import java.io.Serializable;
+
+/**
+ * An immutable copy of the statistics recorded for an authorizer, or for all of the authorizers of a
+ * security binding type.
+ */
+public final class StatisticsSnapshot implements Serializable {
+    private static final long serialVersionUID = -2925478016389235716L;
+
+    private final String name;
+    private final long invocations;
+    private final long denials;
+    private final long failures;
+    private final long totalNanos;
+    private final long[] buckets;
+
+    StatisticsSnapshot(String name, long invocations, long denials, long failures, long totalNanos,
+                       long[] buckets) {
+        this.name = name;
+        this.invocations = invocations;
+        this.denials = denials;
+        this.failures = failures;
+        this.totalNanos = totalNanos;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the name of the authorizer method or security binding type that these statistics describe
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getDenials() {
+        return denials;
+    }
+
+    /**
+     * Returns the number of invocations that threw an exception, which are not counted as denials
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMeanNanos() {
+        return invocations == 0 ? 0 : totalNanos / invocations;
+    }
+
+    /**
+     * Returns the number of invocations counted in each latency bucket
+     * 
+     * @see InvocationStatistics#getBucketUpperBound(int)
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Returns an upper bound in nanoseconds for the latency below which the specified fraction of the
+     * invocations completed, e.g. 0.99 for the 99th percentile
+     */
+    public long getPercentileNanos(double fraction) {
+        long threshold = (long) Math.ceil(invocations * fraction);
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i];
+            if (count >= threshold && count > 0) {
+                return InvocationStatistics.getBucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    StatisticsSnapshot merge(String name, StatisticsSnapshot other) {
+        long[] merged = new long[buckets.length];
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = buckets[i] + other.buckets[i];
+        }
+
+        return new StatisticsSnapshot(name, invocations + other.invocations, denials + other.denials,
+                failures + other.failures, totalNanos + other.totalNanos, merged);
+    }
+
+    @Override
+    public String toString() {
+        return name + " [invocations=" + invocations + ", denials=" + denials + ", failures=" + failures +
+                ", mean=" + getMeanNanos() +
+                "ns, p99<" + getPercentileNanos(0.99) + "ns]";
+    }
+}
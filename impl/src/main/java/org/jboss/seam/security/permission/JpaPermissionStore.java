@@ -4,8 +4,10 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,11 +24,15 @@ import org.jboss.seam.security.annotations.permission.PermissionProperty;
 import org.jboss.seam.security.annotations.permission.PermissionPropertyType;
 import org.jboss.seam.security.management.picketlink.EntityToSpiConverter;
 import org.jboss.seam.security.management.picketlink.JpaIdentityStore;
+import org.jboss.seam.security.management.picketlink.IdentitySessionProducer;
 import org.jboss.seam.security.management.picketlink.JpaIdentityStoreConfiguration;
 import org.jboss.seam.security.permission.PermissionMetadata.ActionSet;
 import org.jboss.solder.properties.Property;
 import org.jboss.solder.properties.query.PropertyCriteria;
 import org.jboss.solder.properties.query.PropertyQueries;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.User;
 import org.picketlink.idm.spi.model.IdentityObject;
 
 /**
@@ -35,7 +41,7 @@ import org.picketlink.idm.spi.model.IdentityObject;
  * @author Shane Bryzak
  */
 @ApplicationScoped
-public class JpaPermissionStore implements PermissionStore, Serializable {
+public class JpaPermissionStore implements QueryablePermissionStore, Serializable {
     private static final long serialVersionUID = 4764590939669047915L;
 
     private static final Logger log = Logger.getLogger(JpaPermissionStore.class);
@@ -70,6 +76,16 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
 
     private Map<Integer, String> queryCache = new HashMap<Integer, String>();
 
+    /**
+     * The maximum number of targets included in a single query
+     */
+    private int maxTargetsPerQuery = 25;
+
+    /**
+     * The most mask values an action is matched against by the database, before matching it in memory instead
+     */
+    private static final int MAX_MASK_VALUES = 256;
+
     private PermissionMetadata metadata;
 
     @Inject
@@ -253,6 +269,7 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
                 identityProperty.setValue(instance, resolveIdentityEntity(identity));
 
                 lookupEntityManager().persist(instance);
+                permissionsChanged(identifierPolicy.getIdentifier(resource), identity.getName());
                 return true;
             }
 
@@ -287,6 +304,7 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
                 lookupEntityManager().remove(instance);
             }
 
+            permissionsChanged(identifierPolicy.getIdentifier(resource), identity.getName());
             return true;
         } catch (Exception ex) {
             throw new RuntimeException("Could not grant permission", ex);
@@ -372,11 +390,30 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
     }
 
     /**
-     * Returns a list of all user and role permissions for the specified action for all specified target objects
+     * Returns a list of all user and role permissions for the specified action for all specified target objects.
+     * The targets are queried in chunks of at most maxTargetsPerQuery.
      */
     public List<Permission> listPermissions(Set<Object> targets, String action) {
-        // TODO limit the number of targets passed at a single time to 25
-        return listPermissions(null, targets, action);
+        if (targets.size() <= maxTargetsPerQuery) {
+            return listPermissions(null, targets, action);
+        }
+
+        List<Permission> permissions = new ArrayList<Permission>();
+        Set<Object> chunk = new HashSet<Object>();
+
+        for (Object target : targets) {
+            chunk.add(target);
+            if (chunk.size() == maxTargetsPerQuery) {
+                permissions.addAll(listPermissions(null, chunk, action));
+                chunk = new HashSet<Object>();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            permissions.addAll(listPermissions(null, chunk, action));
+        }
+
+        return permissions;
     }
 
     /**
@@ -397,12 +434,11 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
 
         if (targets != null && targets.isEmpty()) return permissions;
 
-        // First query for user permissions
         Query permissionQuery = targets != null ?
                 createPermissionQuery(null, targets, null) :
                 createPermissionQuery(resource, null, null);
 
-        List<?> userPermissions = permissionQuery.getResultList();
+        List<?> rows = permissionQuery.getResultList();
 
         Map<String, Object> identifierCache = null;
 
@@ -414,30 +450,45 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
             }
         }
 
-        for (Object permission : userPermissions) {
-            ActionSet actionSet = null;
+        // Target/Recipient/Actions map, consolidating any duplicate records
+        Map<Object, Map<Object, ActionSet>> targetActions = new LinkedHashMap<Object, Map<Object, ActionSet>>();
 
-            if (targets != null) {
-                //target = identifierCache.get(targetProperty.getValue(permission));
-                if (resource != null) {
-                    //actionSet = metadata.createActionSet(target.getClass(),
-                    // actionProperty.getValue(permission).toString());
-                }
-            } else {
-                //actionSet = metadata.createActionSet(target.getClass(),
-                //    actionProperty.getValue(permission).toString());
+        for (Object row : rows) {
+            Object target = targets != null ? identifierCache.get(resourceProperty.getValue(row)) : resource;
+            if (target == null) continue;
+
+            Map<Object, ActionSet> recipientActions = targetActions.get(target);
+            if (recipientActions == null) {
+                recipientActions = new LinkedHashMap<Object, ActionSet>();
+                targetActions.put(target, recipientActions);
+            }
+
+            Object recipient = identityProperty.getValue(row);
+            Object actions = permissionProperty.getValue(row);
+
+            ActionSet actionSet = recipientActions.get(recipient);
+            if (actionSet == null) {
+                recipientActions.put(recipient, metadata.createActionSet(target.getClass(),
+                        actions != null ? actions.toString() : null));
+            } else if (actions != null) {
+                actionSet.addMembers(actions.toString());
             }
+        }
+
+        EntityToSpiConverter converter = getEntityToSpiConverter();
 
-            if (resource != null /* && (action == null || (actionSet != null && actionSet.contains(action)))*/) {
-                // FIXME
-                EntityToSpiConverter converter = getEntityToSpiConverter();
-                IdentityObject identity = converter.convertToIdentityObject(identityProperty.getValue(permission)); //lookupPrincipal(principalCache, permission);
+        for (Map.Entry<Object, Map<Object, ActionSet>> targetEntry : targetActions.entrySet()) {
+            for (Map.Entry<Object, ActionSet> recipientEntry : targetEntry.getValue().entrySet()) {
+                ActionSet actionSet = recipientEntry.getValue();
+                if (action != null && !actionSet.contains(action)) continue;
+
+                IdentityObject identity = converter.convertToIdentityObject(recipientEntry.getKey());
 
                 if (action != null) {
-                    permissions.add(new Permission(resource, action, identity));
+                    permissions.add(new Permission(targetEntry.getKey(), action, identity));
                 } else {
                     for (String a : actionSet.members()) {
-                        permissions.add(new Permission(resource, a, identity));
+                        permissions.add(new Permission(targetEntry.getKey(), a, identity));
                     }
                 }
             }
@@ -446,6 +497,124 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
         return permissions;
     }
 
+    /**
+     * Counts the permission records for the target that belong to the user, one of the roles or one of the groups,
+     * and grant the action.  A role's records are those of its group that name its role type as their
+     * relationship, while a group's records don't name a relationship.  The action is matched by the database,
+     * unless it can't be expressed as a comparison with the persisted actions, in which case only the actions of
+     * the matching records are loaded.
+     */
+    public boolean hasPermission(Object target, String action, User user, Collection<Role> roles,
+                                 Collection<Group> groups) {
+        if (identityPermissionClass == null || action == null) return false;
+
+        Map<String, Property<Object>> identityProperties = configuration.getIdentityModelProperties();
+        String identityName = "p." + identityProperty.getName() + "." +
+                identityProperties.get(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_NAME).getName();
+        String identityType = "p." + identityProperty.getName() + "." +
+                identityProperties.get(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_TYPE).getName();
+        if (identityProperties.containsKey(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_TYPE_NAME)) {
+            identityType += "." + identityProperties.get(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_TYPE_NAME)
+                    .getName();
+        }
+
+        // Group names by group type
+        Map<String, Set<String>> groupNames = new LinkedHashMap<String, Set<String>>();
+        if (groups != null) {
+            for (Group group : groups) {
+                Set<String> names = groupNames.get(group.getGroupType());
+                if (names == null) {
+                    names = new HashSet<String>();
+                    groupNames.put(group.getGroupType(), names);
+                }
+                names.add(group.getName());
+            }
+        }
+
+        Set<String> maskValues = metadata.listMaskValues(target.getClass(), action, MAX_MASK_VALUES);
+        if (maskValues != null && maskValues.isEmpty()) return false;
+
+        boolean matchAction = maskValues != null ||
+                (!metadata.usesActionMask(target.getClass()) && action.indexOf('%') == -1 &&
+                        action.indexOf('_') == -1 && action.indexOf(',') == -1);
+
+        String permissionName = "p." + permissionProperty.getName();
+        String relationshipName = "p." + relationshipNameProperty.getName();
+        int roleCount = roles != null ? roles.size() : 0;
+
+        StringBuilder q = new StringBuilder();
+        q.append(matchAction ? "select count(p)" : "select " + permissionName);
+        q.append(" from ");
+        q.append(identityPermissionClass.getSimpleName());
+        q.append(" p where p.");
+        q.append(resourceProperty.getName());
+        q.append(" = :resource and ((");
+        q.append(identityName).append(" = :user and ").append(identityType).append(" = :userType)");
+        for (int i = 0; i < groupNames.size(); i++) {
+            q.append(" or (").append(identityName).append(" in (:groups").append(i).append(") and ");
+            q.append(identityType).append(" = :groupType").append(i).append(" and ");
+            q.append(relationshipName).append(" is null)");
+        }
+        for (int i = 0; i < roleCount; i++) {
+            q.append(" or (").append(identityName).append(" = :roleGroup").append(i).append(" and ");
+            q.append(identityType).append(" = :roleGroupType").append(i).append(" and ");
+            q.append(relationshipName).append(" = :role").append(i).append(")");
+        }
+        q.append(")");
+
+        if (maskValues != null) {
+            q.append(" and ").append(permissionName).append(" in (:actions)");
+        } else if (matchAction) {
+            q.append(" and (").append(permissionName).append(" = :action");
+            q.append(" or ").append(permissionName).append(" like :firstAction");
+            q.append(" or ").append(permissionName).append(" like :lastAction");
+            q.append(" or ").append(permissionName).append(" like :otherAction)");
+        }
+
+        Query query = lookupEntityManager().createQuery(q.toString());
+        query.setParameter("resource", identifierPolicy.getIdentifier(target));
+        query.setParameter("user", user.getId());
+        query.setParameter("userType", identitySessionProducer.getUserIdentityType());
+
+        int i = 0;
+        for (Map.Entry<String, Set<String>> entry : groupNames.entrySet()) {
+            query.setParameter("groups" + i, entry.getValue());
+            query.setParameter("groupType" + i, entry.getKey());
+            i++;
+        }
+
+        if (roleCount > 0) {
+            i = 0;
+            for (Role role : roles) {
+                query.setParameter("roleGroup" + i, role.getGroup().getName());
+                query.setParameter("roleGroupType" + i, role.getGroup().getGroupType());
+                query.setParameter("role" + i, role.getRoleType().getName());
+                i++;
+            }
+        }
+
+        if (maskValues != null) {
+            query.setParameter("actions", maskValues);
+        } else if (matchAction) {
+            query.setParameter("action", action);
+            query.setParameter("firstAction", action + ",%");
+            query.setParameter("lastAction", "%," + action);
+            query.setParameter("otherAction", "%," + action + ",%");
+        }
+
+        if (matchAction) {
+            return ((Number) query.getSingleResult()).longValue() > 0;
+        }
+
+        for (Object actions : query.getResultList()) {
+            if (actions != null &&
+                    metadata.createActionSet(target.getClass(), actions.toString()).contains(action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public List<Permission> listPermissions(Object target) {
         return listPermissions(target, null);
     }
@@ -466,6 +635,14 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
         this.identityPermissionClass = identityPermissionClass;
     }
 
+    public int getMaxTargetsPerQuery() {
+        return maxTargetsPerQuery;
+    }
+
+    public void setMaxTargetsPerQuery(int maxTargetsPerQuery) {
+        this.maxTargetsPerQuery = maxTargetsPerQuery;
+    }
+
     public void clearPermissions(Object resource) {
         EntityManager em = lookupEntityManager();
         String identifier = identifierPolicy.getIdentifier(resource);
@@ -475,6 +652,18 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
                         resourceProperty.getName() + " = :resource")
                 .setParameter("resource", identifier)
                 .executeUpdate();
+
+        permissionsChanged(identifier, null);
+    }
+
+    /**
+     * Notifies the PermissionCacheControl of a change to the permissions of a resource, which it applies once
+     * the current transaction (if any) has committed
+     */
+    private void permissionsChanged(String identifier, String recipient) {
+        if (identifier != null) {
+            manager.fireEvent(new PermissionInvalidation(identifier, recipient));
+        }
     }
 
     public boolean isEnabled() {
@@ -483,6 +672,9 @@ public class JpaPermissionStore implements PermissionStore, Serializable {
     
     @Inject
     JpaIdentityStoreConfiguration configuration;
+
+    @Inject
+    IdentitySessionProducer identitySessionProducer;
     
     public EntityToSpiConverter getEntityToSpiConverter() {
         EntityToSpiConverter converter = new EntityToSpiConverter();
@@ -0,0 +1,96 @@
+package org.jboss.seam.security.permission;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * The default invalidation channel, which delivers invalidations synchronously to the channels started by other
+ * deployments in the same JVM.  Suitable for a single node, or for testing.
+ * <p/>
+ * Each started channel registers an MBean with the platform MBean server, which is shared by every classloader
+ * in the JVM, and invalidations are published by invoking the MBeans of the other channels with the resource
+ * and recipient as Strings.  No class of one deployment is therefore ever seen by another, and the only
+ * reference to a deployment held outside of it is its MBean, which is unregistered when the channel is stopped.
+ */
+public
+@ApplicationScoped
+class LocalPermissionInvalidationChannel implements PermissionInvalidationChannel {
+    private static final Logger log = Logger.getLogger(LocalPermissionInvalidationChannel.class);
+
+    private static final String DOMAIN = "org.jboss.seam.security";
+    private static final String TYPE = "LocalPermissionInvalidationChannel";
+
+    private static final String[] SIGNATURE = {String.class.getName(), String.class.getName()};
+
+    private MBeanServer server;
+    private ObjectName name;
+
+    public synchronized void start(final Listener listener) {
+        server = ManagementFactory.getPlatformMBeanServer();
+
+        LocalPermissionInvalidationChannelMBean endpoint = new LocalPermissionInvalidationChannelMBean() {
+            public void invalidate(String resource, String recipient) {
+                listener.invalidated(Collections.singletonList(new PermissionInvalidation(resource, recipient)));
+            }
+        };
+
+        try {
+            name = new ObjectName(DOMAIN + ":type=" + TYPE + ",id=" + Integer.toHexString(System.identityHashCode(this)));
+            server.registerMBean(new StandardMBean(endpoint, LocalPermissionInvalidationChannelMBean.class), name);
+        } catch (Exception ex) {
+            name = null;
+            throw new IllegalStateException("Could not register local permission invalidation channel", ex);
+        }
+    }
+
+    public void publish(PermissionInvalidation invalidation) {
+        ObjectName self;
+        MBeanServer s;
+        synchronized (this) {
+            self = name;
+            s = server;
+        }
+        if (self == null) return;
+
+        Set<ObjectName> channels;
+        try {
+            channels = s.queryNames(new ObjectName(DOMAIN + ":type=" + TYPE + ",*"), null);
+        } catch (Exception ex) {
+            log.warn("Could not find the local permission invalidation channels", ex);
+            return;
+        }
+
+        Object[] params = {invalidation.getResource(), invalidation.getRecipient()};
+        for (ObjectName channel : channels) {
+            if (channel.equals(self)) continue;
+
+            try {
+                s.invoke(channel, "invalidate", params, SIGNATURE);
+            } catch (InstanceNotFoundException ex) {
+                // The channel was stopped since it was found
+            } catch (Exception ex) {
+                log.warn("Could not deliver " + invalidation + " to " + channel, ex);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (name != null) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception ex) {
+                log.warn("Could not unregister local permission invalidation channel", ex);
+            }
+            name = null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.jboss.seam.security.permission;
+
+/**
+ * Management interface through which the local invalidation channels of different deployments in the same JVM
+ * deliver invalidations to each other.  Only String parameters are used, so that deployments with different
+ * classloaders can invoke it.
+ */
+public interface LocalPermissionInvalidationChannelMBean {
+    /**
+     * Delivers an invalidation published by another deployment
+     *
+     * @param resource  The identifier of the resource whose permissions have changed
+     * @param recipient The name of the user, role or group whose permissions have changed, or null for all
+     */
+    void invalidate(String resource, String recipient);
+}
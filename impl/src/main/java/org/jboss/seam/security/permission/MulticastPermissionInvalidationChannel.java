@@ -0,0 +1,312 @@
+package org.jboss.seam.security.permission;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * An invalidation channel that multicasts invalidations over UDP.  Invalidations published in quick succession
+ * are coalesced and sent together, after at most batchDelay milliseconds, in as few datagrams as possible.
+ * Delivery is best effort; a lost datagram means the affected decisions remain cached on the nodes that missed
+ * it until they expire.
+ * <p/>
+ * Loopback is enabled, so several JVMs on the same machine can share a channel; setting the timeToLive property
+ * to 0 keeps the datagrams on that machine.
+ */
+public
+@ApplicationScoped
+class MulticastPermissionInvalidationChannel implements PermissionInvalidationChannel {
+    private static final Logger log = Logger.getLogger(MulticastPermissionInvalidationChannel.class);
+
+    private static final int MAGIC = 0x53505649;
+
+    /**
+     * Keeps datagrams within a typical Ethernet MTU, so they're not fragmented
+     */
+    private static final int MAX_DATAGRAM_SIZE = 1400;
+
+    /**
+     * The magic number, node id and record count that start every datagram
+     */
+    private static final int HEADER_SIZE = 16;
+
+    private String address = "239.255.21.7";
+    private int port = 45700;
+    private int timeToLive = 1;
+
+    /**
+     * The time in milliseconds for which invalidations are collected before being sent
+     */
+    private long batchDelay = 50;
+
+    /**
+     * The number of pending invalidations that causes them to be sent without further delay
+     */
+    private int maxBatchSize = 256;
+
+    private final long nodeId = new Random().nextLong();
+
+    private final Set<PermissionInvalidation> pending = new LinkedHashSet<PermissionInvalidation>();
+
+    private volatile boolean running;
+    private volatile Listener listener;
+
+    private MulticastSocket socket;
+    private InetAddress group;
+
+    public synchronized void start(Listener listener) {
+        if (running) return;
+
+        try {
+            group = InetAddress.getByName(address);
+            socket = new MulticastSocket(port);
+            socket.setTimeToLive(timeToLive);
+            // Counterintuitively, false enables loopback
+            socket.setLoopbackMode(false);
+            socket.joinGroup(group);
+        } catch (IOException ex) {
+            if (socket != null) socket.close();
+            throw new RuntimeException("Could not join multicast group " + address + ":" + port, ex);
+        }
+
+        this.listener = listener;
+        running = true;
+
+        Thread sender = new Thread(new Runnable() {
+            public void run() {
+                sendLoop();
+            }
+        }, "PermissionInvalidationSender");
+        sender.setDaemon(true);
+        sender.start();
+
+        Thread receiver = new Thread(new Runnable() {
+            public void run() {
+                receiveLoop();
+            }
+        }, "PermissionInvalidationReceiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public void publish(PermissionInvalidation invalidation) {
+        synchronized (pending) {
+            for (Iterator<PermissionInvalidation> i = pending.iterator(); i.hasNext(); ) {
+                PermissionInvalidation p = i.next();
+                if (p.covers(invalidation)) return;
+                if (invalidation.covers(p)) i.remove();
+            }
+
+            pending.add(invalidation);
+            pending.notifyAll();
+        }
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+
+        running = false;
+        listener = null;
+
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException ex) {
+            log.debug("Could not leave multicast group " + address, ex);
+        }
+        socket.close();
+    }
+
+    private void sendLoop() {
+        while (running) {
+            List<PermissionInvalidation> batch;
+
+            try {
+                synchronized (pending) {
+                    while (running && pending.isEmpty()) {
+                        pending.wait();
+                    }
+
+                    // Give a burst the chance to complete, unless the batch is already full
+                    long deadline = System.currentTimeMillis() + batchDelay;
+                    long remaining = batchDelay;
+                    while (running && remaining > 0 && pending.size() < maxBatchSize) {
+                        pending.wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+
+                    batch = new ArrayList<PermissionInvalidation>(pending);
+                    pending.clear();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (running && !batch.isEmpty()) {
+                try {
+                    send(batch);
+                } catch (IOException ex) {
+                    log.warn("Could not send permission invalidations", ex);
+                }
+            }
+        }
+    }
+
+    private void send(List<PermissionInvalidation> batch) throws IOException {
+        for (byte[] data : encode(batch)) {
+            socket.send(new DatagramPacket(data, data.length, group, port));
+        }
+    }
+
+    /**
+     * Encodes the invalidations into as few datagrams as possible, none larger than MAX_DATAGRAM_SIZE unless a
+     * single invalidation requires it
+     */
+    List<byte[]> encode(List<PermissionInvalidation> batch) throws IOException {
+        List<byte[]> datagrams = new ArrayList<byte[]>();
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+
+        for (PermissionInvalidation invalidation : batch) {
+            int mark = out.size();
+            writeRecord(out, invalidation);
+
+            if (out.size() > MAX_DATAGRAM_SIZE - HEADER_SIZE && count > 0) {
+                // Send the records that fit, and start the next datagram with this one
+                datagrams.add(createDatagram(records.toByteArray(), mark, count));
+
+                records.reset();
+                out = new DataOutputStream(records);
+                writeRecord(out, invalidation);
+                count = 0;
+            }
+            count++;
+        }
+
+        datagrams.add(createDatagram(records.toByteArray(), records.size(), count));
+        return datagrams;
+    }
+
+    private void writeRecord(DataOutputStream out, PermissionInvalidation invalidation) throws IOException {
+        out.writeUTF(invalidation.getResource());
+        out.writeBoolean(invalidation.getRecipient() != null);
+        if (invalidation.getRecipient() != null) {
+            out.writeUTF(invalidation.getRecipient());
+        }
+    }
+
+    private byte[] createDatagram(byte[] records, int length, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(nodeId);
+        out.writeInt(count);
+        out.write(records, 0, length);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the invalidations in a datagram, returning null if it wasn't sent by another node's channel
+     */
+    List<PermissionInvalidation> decode(byte[] data, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+
+        if (length < HEADER_SIZE || in.readInt() != MAGIC) return null;
+        // Invalidations published by this node have already been applied locally
+        if (in.readLong() == nodeId) return null;
+
+        int count = in.readInt();
+        List<PermissionInvalidation> invalidations = new ArrayList<PermissionInvalidation>(count);
+        for (int i = 0; i < count; i++) {
+            String resource = in.readUTF();
+            String recipient = in.readBoolean() ? in.readUTF() : null;
+            invalidations.add(new PermissionInvalidation(resource, recipient));
+        }
+        return invalidations;
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[65535];
+
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+
+                List<PermissionInvalidation> invalidations =
+                        decode(packet.getData(), packet.getOffset(), packet.getLength());
+                if (invalidations == null) continue;
+
+                Listener l = listener;
+                if (l != null) l.invalidated(invalidations);
+            } catch (IOException ex) {
+                if (running) {
+                    log.warn("Could not receive permission invalidations", ex);
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Could not apply permission invalidations", ex);
+            }
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+}
@@ -0,0 +1,229 @@
+package org.jboss.seam.security.permission;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Controls the permission decision caches of every session.  Cached decisions are stamped with the generation
+ * current when they were made, and every invalidation advances the generation.  Invalidating a resource records
+ * the generation at which it was invalidated, which discards the decisions cached for that resource by all
+ * sessions at once; invalidating everything raises the generation below which no decision is valid.  The number of
+ * invalidated resources remembered is bounded, and exceeding it invalidates everything.  Also collects the hit and
+ * miss counts of all sessions.
+ * <p/>
+ * Changes made by the permission store are applied once committed, and published to other deployments through
+ * a PermissionInvalidationChannel, by default one that only reaches other deployments in the same JVM.  Another
+ * channel may be selected with the channelClass property, or none by setting it to null, in which case changes
+ * made elsewhere are only seen once the cached decisions expire.
+ * <p/>
+ * Permission decision caching is disabled unless the enabled property is configured, e.g. with Seam Config.
+ * Decisions are cached by the identifier of the target alone, so decisions made by rules that depend on other
+ * state of the target are not invalidated when that state changes; applications using such rules should either
+ * leave caching disabled or call invalidate() when the state changes.
+ */
+public
+@ApplicationScoped
+class PermissionCacheControl {
+    private static final Logger log = Logger.getLogger(PermissionCacheControl.class);
+
+    private boolean enabled = false;
+
+    private Class<? extends PermissionInvalidationChannel> channelClass = LocalPermissionInvalidationChannel.class;
+
+    /**
+     * The maximum number of decisions cached by each session
+     */
+    private int maxSize = 1000;
+
+    /**
+     * The time in milliseconds for which a decision remains cached
+     */
+    private long timeToLive = 60000;
+
+    /**
+     * The number of invalidated resources remembered before everything is invalidated instead
+     */
+    private int maxInvalidatedResources = 10000;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Decisions stamped with an earlier generation are no longer valid
+     */
+    private volatile long validFrom;
+
+    private final ConcurrentMap<String, Long> invalidatedResources = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    @Inject @Any Instance<PermissionInvalidationChannel> channels;
+
+    private PermissionInvalidationChannel channel;
+
+    @PostConstruct
+    public void startChannel() {
+        if (!enabled || channelClass == null) return;
+
+        try {
+            channel = channels.select(channelClass).get();
+            channel.start(new PermissionInvalidationChannel.Listener() {
+                public void invalidated(Collection<PermissionInvalidation> invalidations) {
+                    remoteInvalidations.addAndGet(invalidations.size());
+                    for (PermissionInvalidation invalidation : invalidations) {
+                        invalidate(invalidation.getResource());
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            channel = null;
+            log.warn("Could not start permission invalidation channel " + channelClass.getName() +
+                    ", permission changes made on other nodes will only be seen once cached decisions expire", ex);
+        }
+    }
+
+    @PreDestroy
+    public void stopChannel() {
+        if (channel != null) {
+            channel.stop();
+            channel = null;
+        }
+    }
+
+    /**
+     * Invalidates the decisions cached on this node for a resource whose permissions have changed, and publishes
+     * the invalidation to the other nodes.  Permission stores fire a PermissionInvalidation event for each change
+     * they make; it is only observed once the transaction making the change has committed, so that neither this
+     * node nor the others cache a decision based on permissions that are then rolled back.
+     */
+    public void permissionsChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS)
+                                   PermissionInvalidation invalidation) {
+        invalidate(invalidation.getResource());
+
+        PermissionInvalidationChannel c = channel;
+        if (c != null) {
+            c.publish(invalidation);
+        }
+    }
+
+    /**
+     * Invalidates the decisions cached by every session for the specified resource
+     *
+     * @param resource The identifier of the resource, as determined by the IdentifierPolicy
+     */
+    public void invalidate(String resource) {
+        invalidatedResources.put(resource, generation.incrementAndGet());
+
+        if (invalidatedResources.size() > maxInvalidatedResources) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidates every decision cached by every session
+     */
+    public void invalidateAll() {
+        validFrom = generation.incrementAndGet();
+        invalidatedResources.clear();
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns true if a decision made for the specified resource at the specified generation is still valid
+     */
+    public boolean isValid(String resource, long decisionGeneration) {
+        if (decisionGeneration < validFrom) return false;
+
+        Long invalidated = invalidatedResources.get(resource);
+        return invalidated == null || decisionGeneration >= invalidated;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of invalidations received from other nodes
+     */
+    public long getRemoteInvalidations() {
+        return remoteInvalidations.get();
+    }
+
+    /**
+     * Returns the proportion of permission checks answered from the caches, across all sessions
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Class<? extends PermissionInvalidationChannel> getChannelClass() {
+        return channelClass;
+    }
+
+    public void setChannelClass(Class<? extends PermissionInvalidationChannel> channelClass) {
+        this.channelClass = channelClass;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxInvalidatedResources() {
+        return maxInvalidatedResources;
+    }
+
+    public void setMaxInvalidatedResources(int maxInvalidatedResources) {
+        this.maxInvalidatedResources = maxInvalidatedResources;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+}
@@ -0,0 +1,127 @@
+package org.jboss.seam.security.permission;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.SessionScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.Reception;
+import javax.inject.Inject;
+
+import org.jboss.seam.security.events.PostAuthenticateEvent;
+import org.jboss.seam.security.events.PostLoggedOutEvent;
+
+/**
+ * Remembers the permission decisions made for the user of the current session, keyed by the identifier of
+ * the target (as determined by the IdentifierPolicy) and the action.  The cache is bounded, the least
+ * recently used decision being discarded first, and decisions expire after a configurable time.  It is
+ * cleared whenever the user logs in or out, or their roles or groups change, and invalidated whenever the
+ * permission store reports a committed change to permissions.
+ */
+public
+@SessionScoped
+class PermissionDecisionCache implements Serializable {
+    private static final long serialVersionUID = 2261548230373766349L;
+
+    @Inject
+    PermissionCacheControl control;
+    @Inject
+    IdentifierPolicy identifierPolicy;
+
+    private static final class Decision implements Serializable {
+        private static final long serialVersionUID = -3447452356024137567L;
+
+        final boolean granted;
+        final long expires;
+        final long generation;
+
+        Decision(boolean granted, long expires, long generation) {
+            this.granted = granted;
+            this.expires = expires;
+            this.generation = generation;
+        }
+    }
+
+    private final Map<String, Decision> decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+        private static final long serialVersionUID = 6616640209289837150L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+            return size() > control.getMaxSize();
+        }
+    };
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the cached decision for the specified target and action, or null if there is none
+     */
+    public synchronized Boolean get(Object target, String action) {
+        if (!control.isEnabled()) return null;
+
+        String identifier = identifierPolicy.getIdentifier(target);
+        if (identifier == null) return null;
+
+        String key = keyOf(identifier, action);
+        Decision decision = decisions.get(key);
+        if (decision != null) {
+            if (control.isValid(identifier, decision.generation) && decision.expires > System.currentTimeMillis()) {
+                hits++;
+                control.recordHit();
+                return decision.granted;
+            }
+            decisions.remove(key);
+        }
+
+        misses++;
+        control.recordMiss();
+        return null;
+    }
+
+    /**
+     * Caches a decision for the specified target and action
+     *
+     * @param generation The generation of the PermissionCacheControl read before the decision was made, so that
+     *                   the decision is discarded if the permissions of the target changed while it was being made
+     */
+    public synchronized void put(Object target, String action, boolean granted, long generation) {
+        if (!control.isEnabled()) return;
+
+        String identifier = identifierPolicy.getIdentifier(target);
+        if (identifier != null) {
+            decisions.put(keyOf(identifier, action), new Decision(granted,
+                    System.currentTimeMillis() + control.getTimeToLive(), generation));
+        }
+    }
+
+    public synchronized void clear() {
+        decisions.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void postAuthenticate(@Observes(notifyObserver = Reception.IF_EXISTS) PostAuthenticateEvent event) {
+        clear();
+    }
+
+    public void postLoggedOut(@Observes(notifyObserver = Reception.IF_EXISTS) PostLoggedOutEvent event) {
+        clear();
+    }
+
+    private static String keyOf(String identifier, String action) {
+        return identifier + '\u0000' + action;
+    }
+}
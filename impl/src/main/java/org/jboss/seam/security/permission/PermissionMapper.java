@@ -1,14 +1,25 @@
 package org.jboss.seam.security.permission;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.inject.Instance;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 
@@ -21,62 +32,244 @@ import javax.inject.Inject;
 public class PermissionMapper implements Serializable {
     private static final long serialVersionUID = 7692687882996064772L;
 
-    @Inject
-    Instance<PermissionResolver> resolvers;
     @Inject
     BeanManager manager;
 
+    /**
+     * If set, the classes of a large heterogeneous collection are filtered in parallel using this executor.
+     * The permission resolvers must then be usable from the executor's threads, i.e. they must not depend on
+     * the contexts of the calling thread.
+     */
+    private transient ExecutorService executor;
+
+    /**
+     * The minimum size of a collection for its classes to be filtered in parallel
+     */
+    private int parallelThreshold = 1000;
+
+    /**
+     * The permission resolver beans of the deployment, resolved once and ordered by cost
+     */
+    private transient volatile ResolverBean[] orderedResolvers;
+
+    /**
+     * The resolver beans that support each target class, in cost order
+     */
+    private transient volatile ConcurrentMap<Class<?>, ResolverBean[]> resolversByClass;
+
+    /**
+     * A permission resolver bean.  Only the client proxy of a normal-scoped bean may be shared between
+     * permission checks; a dependent resolver is instantiated for each use, and destroyed straight after.
+     */
+    private final class ResolverBean {
+        private final Bean<?> bean;
+        private final PermissionResolver proxy;
+        private int cost = CostAwarePermissionResolver.DEFAULT_COST;
+
+        ResolverBean(Bean<?> bean) {
+            this.bean = bean;
+            this.proxy = manager.isNormalScope(bean.getScope()) ?
+                    (PermissionResolver) manager.getReference(bean, PermissionResolver.class,
+                            manager.createCreationalContext(bean)) : null;
+        }
+
+        /**
+         * Returns a context for the dependent objects of a single use of the resolver, or null if the resolver
+         * is normal-scoped.  The context must be released once the resolver has been used.
+         */
+        CreationalContext<?> createContext() {
+            return proxy != null ? null : manager.createCreationalContext(bean);
+        }
+
+        PermissionResolver getReference(CreationalContext<?> ctx) {
+            return proxy != null ? proxy : (PermissionResolver) manager.getReference(bean, PermissionResolver.class,
+                    ctx);
+        }
+    }
+
     public boolean resolvePermission(Object resource, String permission) {
-        for (PermissionResolver resolver : resolvers) {
-            if (resolver.hasPermission(resource, permission)) return true;
+        for (ResolverBean resolver : getResolvers(resource.getClass())) {
+            CreationalContext<?> ctx = resolver.createContext();
+            try {
+                if (resolver.getReference(ctx).hasPermission(resource, permission)) return true;
+            } finally {
+                if (ctx != null) ctx.release();
+            }
         }
         return false;
     }
 
-    public void filterByPermission(Collection<?> collection, String action) {
-        boolean homogenous = true;
+    /**
+     * Returns the resolver beans that may grant permissions for targets of the specified class, cheapest first
+     */
+    private ResolverBean[] getResolvers(Class<?> targetClass) {
+        ConcurrentMap<Class<?>, ResolverBean[]> cache = resolversByClass;
+        if (cache == null) {
+            cache = new ConcurrentHashMap<Class<?>, ResolverBean[]>();
+            resolversByClass = cache;
+        }
 
-        Class<?> targetClass = null;
-        for (Object target : collection) {
-            if (targetClass == null) targetClass = target.getClass();
-            if (!targetClass.equals(target.getClass())) {
-                homogenous = false;
-                break;
+        ResolverBean[] result = cache.get(targetClass);
+        if (result == null) {
+            List<ResolverBean> supported = new ArrayList<ResolverBean>();
+            for (ResolverBean resolver : getOrderedResolvers()) {
+                CreationalContext<?> ctx = resolver.createContext();
+                try {
+                    PermissionResolver reference = resolver.getReference(ctx);
+                    if (!(reference instanceof CostAwarePermissionResolver) ||
+                            ((CostAwarePermissionResolver) reference).supports(targetClass)) {
+                        supported.add(resolver);
+                    }
+                } finally {
+                    if (ctx != null) ctx.release();
+                }
             }
+
+            result = supported.toArray(new ResolverBean[supported.size()]);
+            cache.put(targetClass, result);
         }
 
-        if (homogenous) {
-            Set<Object> denied = new HashSet<Object>(collection);
+        return result;
+    }
 
-            for (PermissionResolver resolver : resolvers) {
-                resolver.filterSetByAction(denied, action);
+    private ResolverBean[] getOrderedResolvers() {
+        ResolverBean[] result = orderedResolvers;
+        if (result == null) {
+            List<ResolverBean> list = new ArrayList<ResolverBean>();
+            for (Bean<?> bean : manager.getBeans(PermissionResolver.class)) {
+                ResolverBean resolver = new ResolverBean(bean);
+                CreationalContext<?> ctx = resolver.createContext();
+                try {
+                    PermissionResolver reference = resolver.getReference(ctx);
+                    if (reference instanceof CostAwarePermissionResolver) {
+                        resolver.cost = ((CostAwarePermissionResolver) reference).getCost();
+                    }
+                } finally {
+                    if (ctx != null) ctx.release();
+                }
+                list.add(resolver);
             }
 
-            for (Object target : denied) {
-                collection.remove(target);
+            // A stable sort, so resolvers of the same cost keep the container's order
+            Collections.sort(list, new Comparator<ResolverBean>() {
+                public int compare(ResolverBean r1, ResolverBean r2) {
+                    return r1.cost < r2.cost ? -1 : (r1.cost == r2.cost ? 0 : 1);
+                }
+            });
+
+            result = list.toArray(new ResolverBean[list.size()]);
+            orderedResolvers = result;
+        }
+        return result;
+    }
+
+    public void filterByPermission(Collection<?> collection, String action) {
+        // Partition the collection by class; each set initially contains every target, and the resolvers
+        // remove those that they grant the permission for
+        Map<Class<?>, Set<Object>> deniedByClass = new LinkedHashMap<Class<?>, Set<Object>>();
+        for (Object target : collection) {
+            Set<Object> denied = deniedByClass.get(target.getClass());
+            if (denied == null) {
+                denied = new HashSet<Object>();
+                deniedByClass.put(target.getClass(), denied);
             }
+            denied.add(target);
+        }
+
+        if (deniedByClass.isEmpty()) return;
+
+        if (executor != null && deniedByClass.size() > 1 && collection.size() >= parallelThreshold) {
+            filterInParallel(deniedByClass, action);
         } else {
-            Map<Class<?>, Set<Object>> deniedByClass = new HashMap<Class<?>, Set<Object>>();
-            for (Object obj : collection) {
-                if (!deniedByClass.containsKey(obj.getClass())) {
-                    Set<Object> denied = new HashSet<Object>();
-                    denied.add(obj);
-                    deniedByClass.put(obj.getClass(), denied);
-                } else {
-                    deniedByClass.get(obj.getClass()).add(obj);
-                }
+            for (Map.Entry<Class<?>, Set<Object>> entry : deniedByClass.entrySet()) {
+                filterByResolvers(entry.getKey(), entry.getValue(), action);
             }
+        }
 
-            for (Class<?> cls : deniedByClass.keySet()) {
-                Set<Object> denied = deniedByClass.get(cls);
-                for (PermissionResolver resolver : resolvers) {
-                    resolver.filterSetByAction(denied, action);
-                }
+        Set<Object> denied;
+        if (deniedByClass.size() == 1) {
+            denied = deniedByClass.values().iterator().next();
+        } else {
+            denied = new HashSet<Object>();
+            for (Set<Object> deniedForClass : deniedByClass.values()) {
+                denied.addAll(deniedForClass);
+            }
+        }
+
+        // A single pass over the collection, rather than a remove() per denied target
+        if (!denied.isEmpty()) {
+            collection.removeAll(denied);
+        }
+    }
+
+    private void filterByResolvers(Class<?> targetClass, Set<Object> targets, String action) {
+        for (ResolverBean resolver : getResolvers(targetClass)) {
+            if (targets.isEmpty()) return;
+
+            CreationalContext<?> ctx = resolver.createContext();
+            try {
+                resolver.getReference(ctx).filterSetByAction(targets, action);
+            } finally {
+                if (ctx != null) ctx.release();
+            }
+        }
+    }
+
+    private void filterInParallel(Map<Class<?>, Set<Object>> partitions, final String action) {
+        List<Future<?>> pending = new ArrayList<Future<?>>(partitions.size());
+        Map.Entry<Class<?>, Set<Object>> local = null;
 
-                for (Object target : denied) {
-                    collection.remove(target);
+        for (final Map.Entry<Class<?>, Set<Object>> partition : partitions.entrySet()) {
+            // The calling thread filters the first partition itself
+            if (local == null) {
+                local = partition;
+                continue;
+            }
+
+            pending.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    filterByResolvers(partition.getKey(), partition.getValue(), action);
+                    return null;
                 }
+            }));
+        }
+
+        try {
+            filterByResolvers(local.getKey(), local.getValue(), action);
+
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while filtering by permission", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IllegalStateException("Exception filtering by permission", ex.getCause());
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
             }
         }
     }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
 }
@@ -1,6 +1,7 @@
 package org.jboss.seam.security.permission;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -153,6 +154,43 @@ public class PermissionMetadata {
         return new ActionSet(targetClass, members);
     }
 
+    public boolean usesActionMask(Class<?> targetClass) {
+        if (!classActions.containsKey(targetClass)) initClassActions(targetClass);
+
+        return usesActionMask.get(targetClass);
+    }
+
+    /**
+     * Returns every persisted bit mask value that includes the specified action, so that the action can be
+     * matched by the database, or null if the class doesn't use action masks or has too many actions for
+     * the values to be listed.  The result is empty if the class doesn't define the action.
+     */
+    public Set<String> listMaskValues(Class<?> targetClass, String action, int maxValues) {
+        if (!usesActionMask(targetClass)) return null;
+
+        Map<String, Long> actions = classActions.get(targetClass);
+        Long mask = actions.get(action);
+        if (mask == null) return Collections.emptySet();
+
+        long others = 0;
+        for (Long m : actions.values()) {
+            others |= m.longValue();
+        }
+        others &= ~mask.longValue();
+
+        if (Long.bitCount(others) >= 31 || (1 << Long.bitCount(others)) > maxValues) return null;
+
+        // Every combination of the other actions, with the specified one
+        Set<String> values = new HashSet<String>();
+        long combination = others;
+        while (true) {
+            values.add(String.valueOf(combination | mask.longValue()));
+            if (combination == 0) break;
+            combination = (combination - 1) & others;
+        }
+        return values;
+    }
+
     public List<String> listAllowableActions(Class<?> targetClass) {
         if (!classActions.containsKey(targetClass)) initClassActions(targetClass);
 
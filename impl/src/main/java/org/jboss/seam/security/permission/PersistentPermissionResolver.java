@@ -1,7 +1,8 @@
 package org.jboss.seam.security.permission;
 
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -10,6 +11,8 @@ import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
 import org.jboss.seam.security.Identity;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.spi.model.IdentityObject;
 
 /**
  * Resolves dynamically-assigned permissions, mapped to a user or a role, and kept in persistent
@@ -19,7 +22,7 @@ import org.jboss.seam.security.Identity;
  */
 public
 @SessionScoped
-class PersistentPermissionResolver implements PermissionResolver, Serializable {
+class PersistentPermissionResolver implements CostAwarePermissionResolver, Serializable {
     private static final long serialVersionUID = -603389172032219059L;
 
     @Inject
@@ -38,6 +41,15 @@ class PersistentPermissionResolver implements PermissionResolver, Serializable {
         this.permissionStore = permissionStore;
     }
 
+    public int getCost() {
+        // A single store query, so cheaper than the default
+        return 50;
+    }
+
+    public boolean supports(Class<?> targetClass) {
+        return true;
+    }
+
     public boolean hasPermission(Object target, String action) {
         if (permissionStore == null) return false;
 
@@ -45,6 +57,11 @@ class PersistentPermissionResolver implements PermissionResolver, Serializable {
 
         if (!permissionStore.isEnabled()) return false;
 
+        if (permissionStore instanceof QueryablePermissionStore) {
+            return ((QueryablePermissionStore) permissionStore).hasPermission(target, action, identity.getUser(),
+                    identity.getRoles(), identity.getGroups());
+        }
+
         List<Permission> permissions = permissionStore.listPermissions(target, action);
 
         String username = identity.getUser().getId();
@@ -52,7 +69,7 @@ class PersistentPermissionResolver implements PermissionResolver, Serializable {
         if (permissions != null) {
             for (Permission permission : permissions) {
                 if (//permission.getIdentity() instanceof SimplePrincipal &&
-                        username.equals(permission.getIdentity().getName())) {
+                        isRecipient(permission.getIdentity(), username, identity.getGroups())) {
                     return true;
                 }
 
@@ -76,6 +93,11 @@ class PersistentPermissionResolver implements PermissionResolver, Serializable {
         return false;
     }
 
+    /**
+     * Removes the targets for which the user has been granted the specified action, either directly or through
+     * one of their groups.  Permissions granted to roles, including conditional roles, are not considered, so
+     * such targets remain in the set.
+     */
     public void filterSetByAction(Set<Object> targets, String action) {
         if (permissionStore == null) return;
 
@@ -84,41 +106,36 @@ class PersistentPermissionResolver implements PermissionResolver, Serializable {
         List<Permission> permissions = permissionStore.listPermissions(targets, action);
 
         String username = identity.getUser().getId();
+        Set<Group> groups = identity.getGroups();
 
-        Iterator<?> iter = targets.iterator();
-        while (iter.hasNext()) {
-            Object target = iter.next();
+        if (permissions == null) return;
 
-            for (Permission permission : permissions) {
-                if (permission.getResource().equals(target)) {
-                    if (//permission.getIdentity() instanceof SimplePrincipal &&
-                            username.equals(permission.getIdentity().getName())) {
-                        iter.remove();
-                        break;
-                    }
-
-                    //if (permission.getRecipient() instanceof RoleImpl)
-                    //{
-                    // RoleImpl role = (RoleImpl) permission.getRecipient();
-
-                    // TODO fix this
-                    /*
-                    if (role.isConditional())
-                    {
-                       if (ruleBasedPermissionResolver.checkConditionalRole(role.getName(), target, action))
-                       {
-                          iter.remove();
-                          break;
-                       }
-                    }
-                    else if (identity.hasRole(role.getRoleType()))
-                    {
-                       iter.remove();
-                       break;
-                    }*/
-                    //}
+        // The store maps each permission back to its target, so a single pass finds the granted targets
+        Set<Object> granted = new HashSet<Object>();
+        for (Permission permission : permissions) {
+            if (isRecipient(permission.getIdentity(), username, groups)) {
+                granted.add(permission.getResource());
+            }
+        }
+
+        targets.removeAll(granted);
+    }
+
+    /**
+     * Returns true if the recipient of a permission is the specified user or one of their groups, matching
+     * recipients in the same way as QueryablePermissionStore.hasPermission()
+     */
+    private boolean isRecipient(IdentityObject recipient, String username, Collection<Group> groups) {
+        if (username.equals(recipient.getName())) return true;
+
+        if (groups != null && recipient.getIdentityType() != null) {
+            for (Group group : groups) {
+                if (group.getName().equals(recipient.getName()) &&
+                        group.getGroupType().equals(recipient.getIdentityType().getName())) {
+                    return true;
                 }
             }
         }
+        return false;
     }
 }
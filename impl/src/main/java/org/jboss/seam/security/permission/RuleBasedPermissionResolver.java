@@ -31,7 +31,7 @@ import org.picketlink.idm.api.Role;
  */
 @Requires("org.drools.KnowledgeBase")
 @SessionScoped
-public class RuleBasedPermissionResolver implements PermissionResolver, Serializable {
+public class RuleBasedPermissionResolver implements CostAwarePermissionResolver, Serializable {
     private static final long serialVersionUID = -7572627522601793024L;
 
     private StatefulKnowledgeSession securityContext;
@@ -52,6 +52,16 @@ public class RuleBasedPermissionResolver implements PermissionResolver, Serializ
         }
     }
 
+    public int getCost() {
+        // Evaluating the rule base is more expensive than the default
+        return 200;
+    }
+
+    public boolean supports(Class<?> targetClass) {
+        // Rules may match targets of any class, but without a rule base nothing is ever granted
+        return getSecurityRules() != null;
+    }
+
     /**
      * Performs a permission check for the specified name and action
      *
@@ -0,0 +1,93 @@
+package org.jboss.seam.security;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.seam.security.jaas.JaasAuthenticator;
+import org.jboss.seam.security.management.IdmAuthenticator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AuthenticatorResolverTest {
+
+    public static class CustomAuthenticator extends BaseAuthenticator {
+        public void authenticate() {
+        }
+    }
+
+    private final Set<Bean<?>> beans = new LinkedHashSet<Bean<?>>();
+    private final List<String> lookups = new ArrayList<String>();
+
+    private AuthenticatorResolver resolver;
+
+    @Before
+    public void setup() throws Exception {
+        resolver = new AuthenticatorResolver();
+
+        Field field = AuthenticatorResolver.class.getDeclaredField("beanManager");
+        field.setAccessible(true);
+        field.set(resolver, stub(BeanManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                lookups.add(method.getName());
+                return "getBeans".equals(method.getName()) ? beans : null;
+            }
+        }));
+    }
+
+    @Test
+    public void prefersCustomAuthenticators() {
+        beans.add(bean(JaasAuthenticator.class));
+        beans.add(bean(IdmAuthenticator.class));
+        Bean<?> custom = bean(CustomAuthenticator.class);
+        beans.add(custom);
+
+        assertSame(custom, resolver.getDefaultAuthenticator());
+    }
+
+    @Test
+    public void fallsBackToTheIdmAuthenticator() {
+        beans.add(bean(JaasAuthenticator.class));
+        Bean<?> idm = bean(IdmAuthenticator.class);
+        beans.add(idm);
+
+        assertSame(idm, resolver.getDefaultAuthenticator());
+    }
+
+    @Test
+    public void resolvesOnce() {
+        assertNull(resolver.getDefaultAuthenticator());
+
+        beans.add(bean(CustomAuthenticator.class));
+        assertNull(resolver.getDefaultAuthenticator());
+        assertEquals(Collections.singletonList("getBeans"), lookups);
+    }
+
+    private static Bean<?> bean(final Class<?> beanClass) {
+        return stub(Bean.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getBeanClass".equals(method.getName())) return beanClass;
+                if ("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+                if ("equals".equals(method.getName())) return proxy == args[0];
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
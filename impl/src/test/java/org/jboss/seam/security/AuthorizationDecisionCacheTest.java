@@ -0,0 +1,55 @@
+package org.jboss.seam.security;
+
+import org.jboss.seam.security.AuthorizationDecisionCache.DecisionKey;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AuthorizationDecisionCacheTest {
+
+    private final DecisionKey key = new DecisionKey("authorizer", new Object[]{"arg"});
+
+    @Test
+    public void remembersDecisions() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache();
+        cache.put(key, true);
+
+        assertEquals(Boolean.TRUE, cache.get(new DecisionKey("authorizer", new Object[]{"arg"})));
+        assertNull(cache.get(new DecisionKey("authorizer", new Object[]{"other"})));
+    }
+
+    @Test
+    public void bypassedWhileSuspended() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache();
+        cache.put(key, true);
+
+        cache.suspend();
+        assertNull(cache.get(key));
+        cache.put(key, false);
+        cache.resume();
+
+        assertEquals(Boolean.TRUE, cache.get(key));
+    }
+
+    @Test
+    public void bypassedDuringRunAs() {
+        final AuthorizationDecisionCache cache = new AuthorizationDecisionCache();
+        cache.put(key, false);
+
+        IdentityImpl identity = new IdentityImpl();
+        identity.authorizationDecisionCache = new FixedInstance<AuthorizationDecisionCache>(cache);
+
+        final Boolean[] seen = new Boolean[1];
+        identity.runAs(new RunAsOperation(true) {
+            @Override
+            public void execute() {
+                seen[0] = cache.get(key);
+                cache.put(key, true);
+            }
+        });
+
+        assertNull(seen[0]);
+        assertEquals(Boolean.FALSE, cache.get(key));
+    }
+}
@@ -0,0 +1,49 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Iterator;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.util.TypeLiteral;
+
+/**
+ * An Instance that always resolves to the same object, for wiring beans by hand in tests
+ */
+public class FixedInstance<T> implements Instance<T> {
+    private final T instance;
+
+    public FixedInstance(T instance) {
+        this.instance = instance;
+    }
+
+    public T get() {
+        return instance;
+    }
+
+    public Instance<T> select(Annotation... qualifiers) {
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <U extends T> Instance<U> select(Class<U> subtype, Annotation... qualifiers) {
+        return (Instance<U>) this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <U extends T> Instance<U> select(TypeLiteral<U> subtype, Annotation... qualifiers) {
+        return (Instance<U>) this;
+    }
+
+    public boolean isUnsatisfied() {
+        return instance == null;
+    }
+
+    public boolean isAmbiguous() {
+        return false;
+    }
+
+    public Iterator<T> iterator() {
+        return Collections.singletonList(instance).iterator();
+    }
+}
@@ -0,0 +1,332 @@
+package org.jboss.seam.security;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.seam.security.Authenticator.AuthenticationStatus;
+import org.jboss.seam.security.permission.IdentifierPolicy;
+import org.jboss.seam.security.permission.PermissionCacheControl;
+import org.jboss.seam.security.permission.PermissionDecisionCache;
+import org.jboss.seam.security.permission.PermissionInvalidation;
+import org.jboss.seam.security.permission.PermissionMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.User;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdentityImplTest {
+    private final PermissionCacheControl control = new PermissionCacheControl();
+    private final IdentityImpl identity = new IdentityImpl();
+    private final CredentialsImpl credentials = new CredentialsImpl() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean isSet() {
+            credentialChecks++;
+            return super.isSet();
+        }
+    };
+
+    private int credentialChecks;
+    private int attempts;
+    private boolean accept = true;
+
+    private volatile boolean granted = true;
+    private volatile CountDownLatch resolving;
+    private volatile CountDownLatch revoked;
+
+    private final BaseAuthenticator authenticator = new BaseAuthenticator() {
+        public void authenticate() {
+            attempts++;
+            if (!accept) {
+                setStatus(AuthenticationStatus.FAILURE);
+                return;
+            }
+
+            identity.addRole("manager", "head office", "ORGANIZATION");
+            identity.addGroup("sales", "GROUP");
+            setUser(new SimpleUser(credentials.getUsername()));
+            setStatus(AuthenticationStatus.SUCCESS);
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        control.setEnabled(true);
+
+        PermissionDecisionCache cache = new PermissionDecisionCache();
+        inject(cache, "control", control);
+        inject(cache, "identifierPolicy", new IdentifierPolicy());
+
+        BeanManager beanManager = stub(BeanManager.class);
+        credentials.manager = beanManager;
+
+        identity.beanManager = beanManager;
+        identity.requestSecurityState = new FixedInstance<RequestSecurityState>(new RequestSecurityState());
+        identity.authorizationDecisionCache = new FixedInstance<AuthorizationDecisionCache>(
+                new AuthorizationDecisionCache());
+        identity.authenticators = new FixedInstance<Authenticator>(authenticator);
+        identity.admissionControl = new LoginAdmissionControl();
+        identity.failureTracker = new LoginFailureTracker();
+        identity.permissionCacheControl = control;
+        identity.permissionDecisionCache = new FixedInstance<PermissionDecisionCache>(cache);
+        identity.permissionMapper = new PermissionMapper() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean resolvePermission(Object resource, String permission) {
+                boolean result = granted;
+                if (resolving != null) {
+                    resolving.countDown();
+                    try {
+                        revoked.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return result;
+            }
+        };
+        identity.setAuthenticatorClass(authenticator.getClass());
+        inject(identity, "credentials", credentials);
+    }
+
+    @Test
+    public void indexesRolesAndGroupsGrantedDuringAuthentication() {
+        login();
+
+        assertTrue(identity.hasRole("manager", "head office", "ORGANIZATION"));
+        assertFalse(identity.hasRole("manager", "head office", "GROUP"));
+        assertTrue(identity.inGroup("sales", "GROUP"));
+        assertFalse(identity.inGroup("sales", "ORGANIZATION"));
+        assertEquals(1, identity.getRoles().size());
+        assertEquals(1, identity.getGroups().size());
+    }
+
+    @Test
+    public void keepsTheIndexInStepWithTheActiveRolesAndGroups() {
+        login();
+
+        assertTrue(identity.addRole("admin", "head office", "ORGANIZATION"));
+        assertFalse(identity.addRole("admin", "head office", "ORGANIZATION"));
+        assertEquals(2, identity.getRoles().size());
+
+        identity.removeRole("manager", "head office", "ORGANIZATION");
+        assertFalse(identity.hasRole("manager", "head office", "ORGANIZATION"));
+        assertTrue(identity.hasRole("admin", "head office", "ORGANIZATION"));
+        assertEquals(1, identity.getRoles().size());
+
+        identity.removeGroup("sales", "GROUP");
+        assertFalse(identity.inGroup("sales", "GROUP"));
+        assertTrue(identity.getGroups().isEmpty());
+
+        identity.unAuthenticate();
+        assertFalse(identity.hasRole("admin", "head office", "ORGANIZATION"));
+        assertTrue(identity.getRoles().isEmpty());
+    }
+
+    @Test
+    public void authenticatedUsersSkipTheCredentialCheck() {
+        login();
+        credentialChecks = 0;
+
+        assertTrue(identity.tryLogin());
+        assertTrue(identity.hasRole("manager", "head office", "ORGANIZATION"));
+        assertEquals(0, credentialChecks);
+    }
+
+    @Test
+    public void quietLoginIsAttemptedOncePerRequest() {
+        accept = false;
+        credentials.setUsername("shane");
+        credentials.setPassword("secret");
+
+        assertFalse(identity.hasRole("manager", "head office", "ORGANIZATION"));
+        int checks = credentialChecks;
+
+        assertFalse(identity.tryLogin());
+        assertFalse(identity.hasRole("manager", "head office", "ORGANIZATION"));
+        assertEquals(checks, credentialChecks);
+        assertEquals(1, attempts);
+    }
+
+    @Test
+    public void rolesAndGroupsAreSnapshots() {
+        login();
+
+        Set<Role> roles = identity.getRoles();
+        Set<Group> groups = identity.getGroups();
+        identity.addRole("admin", "head office", "ORGANIZATION");
+        identity.removeGroup("sales", "GROUP");
+
+        assertEquals(1, roles.size());
+        assertEquals(1, groups.size());
+        assertEquals(2, identity.getRoles().size());
+        assertTrue(identity.getGroups().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void runAsOverridesTheUserForTheCurrentThreadOnly() throws Exception {
+        login();
+
+        final User[] seen = new User[2];
+        identity.runAs(new RunAsOperation() {
+            @Override
+            public void execute() {
+                seen[0] = identity.getUser();
+
+                Thread other = new Thread() {
+                    @Override
+                    public void run() {
+                        seen[1] = identity.getUser();
+                    }
+                };
+                other.start();
+                try {
+                    other.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertNull(seen[0]);
+        assertEquals("shane", seen[1].getId());
+        assertEquals("shane", identity.getUser().getId());
+    }
+
+    @Test
+    public void systemOperationsPassEveryCheck() {
+        final boolean[] granted = new boolean[1];
+        identity.runAs(new RunAsOperation(true) {
+            @Override
+            public void execute() {
+                granted[0] = identity.hasRole("admin", "head office", "ORGANIZATION");
+            }
+        });
+
+        assertTrue(granted[0]);
+        assertFalse(identity.hasRole("admin", "head office", "ORGANIZATION"));
+    }
+
+    @Test
+    public void releasesTheDefaultAuthenticatorAfterEachLogin() throws Exception {
+        final List<Object> releasedContexts = new ArrayList<Object>();
+        final Bean<?> bean = stub(Bean.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getBeanClass".equals(method.getName()) ? authenticator.getClass() : null;
+            }
+        });
+
+        AuthenticatorResolver resolver = new AuthenticatorResolver();
+        inject(resolver, "beanManager", stub(BeanManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getBeans".equals(method.getName())) {
+                    return Collections.singleton(bean);
+                } else if ("getReference".equals(method.getName())) {
+                    return authenticator;
+                } else if ("createCreationalContext".equals(method.getName())) {
+                    return stub(CreationalContext.class, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("release".equals(method.getName())) {
+                                releasedContexts.add(proxy);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        }));
+        identity.authenticatorResolver = resolver;
+        identity.setAuthenticatorClass(null);
+
+        login();
+        assertEquals(1, releasedContexts.size());
+
+        identity.unAuthenticate();
+        accept = false;
+        credentials.setUsername("shane");
+        credentials.setPassword("secret");
+        assertEquals(Identity.RESPONSE_LOGIN_FAILED, identity.login());
+        assertEquals(2, releasedContexts.size());
+    }
+
+    @Test
+    public void cachesDecisions() {
+        assertTrue(identity.hasPermission("customer:1", "read"));
+        granted = false;
+        assertTrue(identity.hasPermission("customer:1", "read"));
+    }
+
+    @Test(timeout = 10000)
+    public void decisionRevokedWhileBeingMadeIsNotCached() throws Exception {
+        resolving = new CountDownLatch(1);
+        revoked = new CountDownLatch(1);
+
+        Thread revoker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    resolving.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                granted = false;
+                control.permissionsChanged(new PermissionInvalidation("customer:1", "shane"));
+                revoked.countDown();
+            }
+        };
+        revoker.start();
+
+        // Resolved against the permissions as they were before the revoke
+        assertTrue(identity.hasPermission("customer:1", "read"));
+        revoker.join();
+
+        resolving = null;
+        assertFalse(identity.hasPermission("customer:1", "read"));
+    }
+
+    private void login() {
+        credentials.setUsername("shane");
+        credentials.setPassword("password");
+        assertEquals(Identity.RESPONSE_LOGIN_SUCCESS, identity.login());
+    }
+
+    private static void inject(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return stub(type, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,109 @@
+package org.jboss.seam.security;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LoginAdmissionControlTest {
+    private LoginAdmissionControl control;
+
+    @Before
+    public void setup() {
+        control = new LoginAdmissionControl();
+        control.setMaxConcurrentAuthentications(1);
+    }
+
+    @Test
+    public void rejectsAttemptsWhenTheQueueIsFull() throws Exception {
+        control.setMaxQueuedAuthentications(0);
+        control.acquire();
+
+        try {
+            control.acquire();
+            fail("Expected the attempt to be rejected");
+        } catch (LoginRejectedException ex) {
+            // expected
+        }
+
+        control.release();
+        control.acquire();
+
+        assertEquals(2, control.getAdmittedAuthentications());
+        assertEquals(1, control.getRejectedAuthentications());
+        assertEquals(1, control.getActiveAuthentications());
+    }
+
+    @Test
+    public void rejectsAttemptsThatTimeOut() throws Exception {
+        control.setQueueTimeout(10);
+        control.acquire();
+
+        try {
+            control.acquire();
+            fail("Expected the attempt to time out");
+        } catch (LoginRejectedException ex) {
+            // expected
+        }
+
+        assertEquals(0, control.getQueuedAuthentications());
+        assertEquals(1, control.getRejectedAuthentications());
+    }
+
+    @Test
+    public void admitsQueuedAttemptsOnRelease() throws Exception {
+        control.acquire();
+
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    control.acquire();
+                } catch (LoginRejectedException ex) {
+                    // Counted as rejected
+                }
+            }
+        });
+        waiter.start();
+
+        while (control.getQueuedAuthentications() == 0 && waiter.isAlive()) {
+            Thread.sleep(1);
+        }
+        control.release();
+        waiter.join();
+
+        assertEquals(2, control.getAdmittedAuthentications());
+        assertEquals(0, control.getRejectedAuthentications());
+    }
+
+    @Test
+    public void raisingTheLimitAdmitsMoreAttempts() throws Exception {
+        control.setMaxQueuedAuthentications(0);
+        control.acquire();
+        control.setMaxConcurrentAuthentications(2);
+
+        control.acquire();
+        assertEquals(2, control.getActiveAuthentications());
+    }
+
+    @Test
+    public void loweringTheLimitWaitsForAttemptsInProgress() throws Exception {
+        control.setMaxConcurrentAuthentications(2);
+        control.setMaxQueuedAuthentications(0);
+        control.acquire();
+        control.acquire();
+
+        control.setMaxConcurrentAuthentications(1);
+        control.release();
+        try {
+            control.acquire();
+            fail("Expected the attempt to be rejected until the remaining attempt completes");
+        } catch (LoginRejectedException ex) {
+            // expected
+        }
+
+        control.release();
+        control.acquire();
+        assertEquals(1, control.getActiveAuthentications());
+    }
+}
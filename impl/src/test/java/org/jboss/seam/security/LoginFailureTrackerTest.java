@@ -0,0 +1,103 @@
+package org.jboss.seam.security;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.jboss.seam.security.events.LoggedInEvent;
+import org.jboss.seam.security.events.LoginFailedEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginFailureTrackerTest {
+    private LoginFailureTracker tracker;
+    private long now = 1000000;
+
+    @Before
+    public void setup() {
+        tracker = new LoginFailureTracker() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        tracker.requests = new FixedInstance<HttpServletRequest>(null);
+        tracker.setMaxFailures(3);
+    }
+
+    @Test
+    public void throttlesAfterRepeatedFailures() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(tracker.isThrottled("shane"));
+            tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+        }
+
+        assertTrue(tracker.isThrottled("shane"));
+        assertFalse(tracker.isThrottled("pete"));
+        assertEquals(1, tracker.getThrottledAttempts());
+    }
+
+    @Test
+    public void forgetsFailuresAfterLogin() {
+        for (int i = 0; i < 3; i++) {
+            tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+        }
+
+        tracker.loggedIn(new LoggedInEvent(null), credentials("shane"));
+        assertFalse(tracker.isThrottled("shane"));
+    }
+
+    @Test
+    public void ignoresRejectedAttempts() {
+        for (int i = 0; i < 3; i++) {
+            tracker.loginFailed(new LoginFailedEvent(new LoginRejectedException("rejected")), credentials("shane"));
+        }
+
+        assertFalse(tracker.isThrottled("shane"));
+    }
+
+    @Test
+    public void lockHoldsForTheHalfLifeAfterTheLastFailure() {
+        tracker.setFailureHalfLife(300000);
+        for (int i = 0; i < 3; i++) {
+            tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+            now += 1000;
+        }
+
+        assertTrue(tracker.isThrottled("shane"));
+        now += 298000;
+        assertTrue(tracker.isThrottled("shane"));
+        now += 1000;
+        assertFalse(tracker.isThrottled("shane"));
+
+        // Half of the failures are still remembered, so fewer are needed to be throttled again
+        tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+        tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+        assertTrue(tracker.isThrottled("shane"));
+    }
+
+    @Test
+    public void failuresSpreadOverSeveralHalfLivesDecay() {
+        tracker.setFailureHalfLife(1000);
+        for (int i = 0; i < 10; i++) {
+            tracker.loginFailed(new LoginFailedEvent(null), credentials("shane"));
+            now += 2000;
+            assertFalse(tracker.isThrottled("shane"));
+        }
+    }
+
+    private static Credentials credentials(final String username) {
+        return (Credentials) Proxy.newProxyInstance(Credentials.class.getClassLoader(),
+                new Class<?>[]{Credentials.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getUsername".equals(method.getName()) ? username : null;
+            }
+        });
+    }
+}
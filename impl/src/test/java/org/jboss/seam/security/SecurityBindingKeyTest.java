@@ -0,0 +1,84 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import javax.enterprise.util.Nonbinding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class SecurityBindingKeyTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface NoMembers {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Members {
+        String value();
+
+        int level();
+
+        @Nonbinding String description() default "";
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Roles {
+        String[] value();
+    }
+
+    @NoMembers
+    @Members(value = "admin", level = 1)
+    @Roles({"admin", "manager"})
+    static class Authorizer {
+    }
+
+    @NoMembers
+    @Members(value = "admin", level = 1, description = "ignored")
+    @Roles({"admin", "manager"})
+    static class Matching {
+    }
+
+    @Members(value = "admin", level = 2)
+    @Roles({"manager", "admin"})
+    static class Other {
+    }
+
+    private final SecurityBindingKey.Factory bindingKeys = new SecurityBindingKey.Factory();
+
+    @Test
+    public void nonbindingMembersAreIgnored() {
+        SecurityBindingKey key = bindingKeys.create(Authorizer.class.getAnnotation(Members.class));
+
+        assertEquals(key, bindingKeys.create(Matching.class.getAnnotation(Members.class)));
+        assertEquals(key.hashCode(), bindingKeys.create(Matching.class.getAnnotation(Members.class)).hashCode());
+        assertFalse(key.equals(bindingKeys.create(Other.class.getAnnotation(Members.class))));
+    }
+
+    @Test
+    public void bindingsWithoutMembersShareAKey() {
+        assertSame(bindingKeys.create(Authorizer.class.getAnnotation(NoMembers.class)),
+                bindingKeys.create(Matching.class.getAnnotation(NoMembers.class)));
+    }
+
+    @Test
+    public void arrayMembersCompareByContent() {
+        SecurityBindingKey key = bindingKeys.create(Authorizer.class.getAnnotation(Roles.class));
+
+        assertEquals(key, bindingKeys.create(Matching.class.getAnnotation(Roles.class)));
+        assertEquals(key.hashCode(), bindingKeys.create(Matching.class.getAnnotation(Roles.class)).hashCode());
+        assertFalse(key.equals(bindingKeys.create(Other.class.getAnnotation(Roles.class))));
+    }
+
+    @Test
+    public void keysRemainEqualAfterClear() {
+        SecurityBindingKey key = bindingKeys.create(Authorizer.class.getAnnotation(Members.class));
+        bindingKeys.clear();
+
+        assertEquals(key, bindingKeys.create(Matching.class.getAnnotation(Members.class)));
+    }
+}
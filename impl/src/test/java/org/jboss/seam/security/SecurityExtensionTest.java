@@ -0,0 +1,402 @@
+package org.jboss.seam.security;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import javax.enterprise.context.Dependent;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.interceptor.InvocationContext;
+
+import org.jboss.seam.security.annotations.Secures;
+import org.jboss.seam.security.annotations.SecurityBindingType;
+import org.jboss.seam.security.annotations.SecurityParameterBinding;
+import org.jboss.solder.reflection.annotated.AnnotatedTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SecurityExtensionTest {
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Admin {
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Unknown {
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Locked {
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Denied {
+    }
+
+    @SecurityBindingType
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Owned {
+    }
+
+    @SecurityParameterBinding
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Owner {
+    }
+
+    public static class Restrictions {
+        public @Secures @Admin boolean isAdmin() {
+            return true;
+        }
+
+        public @Secures @Owned boolean isOwner(@Owner String owner) {
+            return "shane".equals(owner);
+        }
+
+        public @Secures @Denied boolean isDenied() {
+            return false;
+        }
+
+        public @Secures @Locked boolean isUnlocked() {
+            throw new IllegalStateException("locked");
+        }
+    }
+
+    public static class MoreRestrictions {
+        public @Secures @Admin boolean isAdministrator() {
+            return true;
+        }
+    }
+
+    @Admin
+    public static class Secured {
+        public void delete() {
+        }
+    }
+
+    public static class SecuredProxy extends Secured {
+    }
+
+    public static class Documents {
+        public @Owned void update(String title, @Owner String owner) {
+        }
+    }
+
+    @Locked
+    public static class Vault {
+        public void open() {
+        }
+    }
+
+    @Admin
+    @Denied
+    @Unknown
+    public static class Menu {
+    }
+
+    public static class Unsecured {
+        public @Unknown void delete() {
+        }
+    }
+
+    @Unknown
+    public static class Unguarded {
+        public void open() {
+        }
+    }
+
+    private SecurityExtension extension;
+    private BeanManager beanManager;
+
+    private final Set<Bean<?>> beans = new HashSet<Bean<?>>();
+    private final List<String> lookups = new ArrayList<String>();
+    private final List<Object> releasedContexts = new ArrayList<Object>();
+    private final List<Throwable> definitionErrors = new ArrayList<Throwable>();
+
+    @Before
+    public void setup() {
+        extension = new SecurityExtension();
+        beanManager = stub(BeanManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                lookups.add(method.getName());
+                if ("getBeans".equals(method.getName())) {
+                    return beans;
+                } else if ("isNormalScope".equals(method.getName())) {
+                    return RequestScoped.class.equals(args[0]);
+                } else if ("isQualifier".equals(method.getName())) {
+                    return false;
+                } else if ("createCreationalContext".equals(method.getName())) {
+                    return creationalContext();
+                } else if ("getReference".equals(method.getName())) {
+                    return new Restrictions();
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void publishesEachAuthorizerStackOnce() throws Exception {
+        deploy(Restrictions.class, Secured.class);
+        assertEquals(Collections.<Throwable>emptyList(), definitionErrors);
+
+        Method delete = Secured.class.getMethod("delete");
+        SecurityExtension.MethodAuthorizer[] stack = extension.lookupAuthorizerStack(delete, Secured.class);
+        assertEquals(1, stack.length);
+        assertEquals(Restrictions.class.getMethod("isAdmin"), stack[0].getAuthorizer().getImplementationMethod());
+        assertSame(stack, extension.lookupAuthorizerStack(delete, Secured.class));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentMissesShareThePublishedStack() throws Exception {
+        deploy(Restrictions.class, Secured.class);
+
+        final Method delete = Secured.class.getMethod("delete");
+        final CountDownLatch start = new CountDownLatch(1);
+        final SecurityExtension.MethodAuthorizer[][] stacks = new SecurityExtension.MethodAuthorizer[8][];
+        Thread[] threads = new Thread[stacks.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    stacks[index] = extension.lookupAuthorizerStack(delete, Secured.class);
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (SecurityExtension.MethodAuthorizer[] stack : stacks) {
+            assertSame(stacks[0], stack);
+        }
+    }
+
+    @Test
+    public void cachesNormalScopedAuthorizerReferences() throws Exception {
+        beans.add(bean(Restrictions.class, RequestScoped.class));
+        deploy(Restrictions.class, Secured.class);
+
+        SecurityExtension.MethodAuthorizer[] stack = extension.lookupAuthorizerStack(Secured.class.getMethod("delete"),
+                Secured.class);
+        stack[0].authorize(null);
+        stack[0].authorize(null);
+
+        assertEquals(1, Collections.frequency(lookups, "getReference"));
+        assertEquals(Collections.emptyList(), releasedContexts);
+    }
+
+    @Test
+    public void releasesDependentAuthorizerInstances() throws Exception {
+        beans.add(bean(Restrictions.class, Dependent.class));
+        deploy(Restrictions.class, Secured.class);
+
+        SecurityExtension.MethodAuthorizer[] stack = extension.lookupAuthorizerStack(Secured.class.getMethod("delete"),
+                Secured.class);
+        stack[0].authorize(null);
+        stack[0].authorize(null);
+
+        assertEquals(2, Collections.frequency(lookups, "getReference"));
+        assertEquals(2, releasedContexts.size());
+    }
+
+    @Test
+    public void resolvesAuthorizersOnceDeploymentIsValidated() throws Exception {
+        beans.add(bean(Restrictions.class, RequestScoped.class));
+        deploy(Restrictions.class, Secured.class);
+        assertEquals(Collections.<Throwable>emptyList(), definitionErrors);
+
+        extension.resolveAuthorizers(stub(AfterDeploymentValidation.class, null));
+        int references = Collections.frequency(lookups, "getReference");
+        assertEquals(Restrictions.class.getDeclaredMethods().length, references);
+
+        // Invoking the authorizer no longer needs to consult the bean manager
+        lookups.clear();
+        SecurityExtension.MethodAuthorizer[] stack = extension.lookupAuthorizerStack(Secured.class.getMethod("delete"),
+                Secured.class);
+        stack[0].authorize(null);
+        assertEquals(Collections.<String>emptyList(), lookups);
+
+        extension.releaseAuthorizers(null);
+        assertEquals(references, releasedContexts.size());
+    }
+
+    @Test
+    public void bindsSecuredMethodArgumentsByPrecomputedIndex() throws Exception {
+        beans.add(bean(Restrictions.class, RequestScoped.class));
+        deploy(Restrictions.class, Documents.class);
+        assertEquals(Collections.<Throwable>emptyList(), definitionErrors);
+
+        Method update = Documents.class.getMethod("update", String.class, String.class);
+        SecurityExtension.MethodAuthorizer[] stack = extension.lookupAuthorizerStack(update, Documents.class);
+        assertArrayEquals(new int[]{1}, stack[0].getAuthorizer().mapParameterBindings(update));
+
+        stack[0].authorize(invocation(update, "Minutes", "shane"));
+        try {
+            stack[0].authorize(invocation(update, "Minutes", "bob"));
+            fail("Expected the authorization check to fail");
+        } catch (AuthorizationException expected) {
+        }
+    }
+
+    @Test
+    public void checksEachDistinctBindingOncePerBatch() {
+        beans.add(bean(Restrictions.class, Dependent.class));
+        deploy(Restrictions.class);
+
+        Annotation admin = Menu.class.getAnnotation(Admin.class);
+        Annotation denied = Menu.class.getAnnotation(Denied.class);
+        Annotation unknown = Menu.class.getAnnotation(Unknown.class);
+
+        List<Set<Annotation>> bindingSets = new ArrayList<Set<Annotation>>();
+        bindingSets.add(Collections.singleton(admin));
+        bindingSets.add(new HashSet<Annotation>(Arrays.asList(admin, denied)));
+        bindingSets.add(Collections.singleton(unknown));
+        bindingSets.add(Collections.<Annotation>emptySet());
+        bindingSets.add(Collections.singleton(denied));
+
+        BitSet results = extension.checkAuthorization(bindingSets);
+
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(3);
+        assertEquals(expected, results);
+        assertEquals(2, Collections.frequency(lookups, "getReference"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void propagatesAuthorizerExceptionsUnwrapped() throws Exception {
+        beans.add(bean(Restrictions.class, RequestScoped.class));
+        deploy(Restrictions.class, Vault.class);
+
+        extension.lookupAuthorizerStack(Vault.class.getMethod("open"), Vault.class)[0].authorize(null);
+    }
+
+    @Test
+    public void reportsEveryInvalidBindingAtDeployment() {
+        deploy(Restrictions.class, MoreRestrictions.class, Secured.class, Unsecured.class, Unguarded.class);
+
+        assertEquals(3, definitionErrors.size());
+        for (Throwable error : definitionErrors) {
+            assertTrue(error instanceof SecurityDefinitionException);
+        }
+    }
+
+    @Test
+    public void proxySubclassesShareTheSuperclassStack() throws Exception {
+        deploy(Restrictions.class, Secured.class);
+
+        Method delete = Secured.class.getMethod("delete");
+        assertSame(extension.lookupAuthorizerStack(delete, Secured.class),
+                extension.lookupAuthorizerStack(delete, SecuredProxy.class));
+    }
+
+    @Test(expected = SecurityDefinitionException.class)
+    public void rejectsBindingsWithoutAuthorizer() throws Exception {
+        deploy(Restrictions.class);
+        extension.lookupAuthorizerStack(Unsecured.class.getMethod("delete"), Unsecured.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <X> void deploy(Class<?>... types) {
+        for (Class<?> type : types) {
+            final Object annotatedType = new AnnotatedTypeBuilder<X>().readFromType((Class<X>) type).create();
+            ProcessAnnotatedType<X> event = stub(ProcessAnnotatedType.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "getAnnotatedType".equals(method.getName()) ? annotatedType : null;
+                }
+            });
+            extension.processAnnotatedType(event, beanManager);
+        }
+
+        extension.validateBindings(stub(AfterBeanDiscovery.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("addDefinitionError".equals(method.getName())) {
+                    definitionErrors.add((Throwable) args[0]);
+                }
+                return null;
+            }
+        }), beanManager);
+    }
+
+    private static InvocationContext invocation(final Method method, final Object... parameters) {
+        return stub(InvocationContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                if ("getMethod".equals(m.getName())) return method;
+                if ("getParameters".equals(m.getName())) return parameters;
+                return null;
+            }
+        });
+    }
+
+    private CreationalContext<?> creationalContext() {
+        return stub(CreationalContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("release".equals(method.getName())) {
+                    releasedContexts.add(proxy);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Bean<?> bean(final Class<?> beanClass, final Class<? extends Annotation> scope) {
+        return stub(Bean.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getBeanClass".equals(method.getName())) return beanClass;
+                if ("getScope".equals(method.getName())) return scope;
+                if ("getQualifiers".equals(method.getName())) return Collections.emptySet();
+                if ("getInjectionPoints".equals(method.getName())) return Collections.emptySet();
+                if ("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+                if ("equals".equals(method.getName())) return proxy == args[0];
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        if (handler == null) {
+            handler = new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            };
+        }
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,107 @@
+package org.jboss.seam.security;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.seam.security.SecurityExtension.PendingAuthorization;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SecurityInterceptorTest {
+
+    private final SecurityExtension extension = new SecurityExtension();
+
+    @After
+    public void shutdown() {
+        extension.shutdownAuthorizationWaiters(null);
+    }
+
+    private static FutureTask<Boolean> result(final boolean decision) {
+        return new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() {
+                return decision;
+            }
+        });
+    }
+
+    private PendingAuthorization pending(FutureTask<Boolean> result) {
+        return extension.new PendingAuthorization(result, null, null, null, null, 0);
+    }
+
+    @Test(timeout = 5000)
+    public void laterDenialFailsBeforeEarlierChecksComplete() {
+        // Never run, so it never completes
+        FutureTask<Boolean> slow = result(true);
+        FutureTask<Boolean> denied = result(false);
+        denied.run();
+
+        SecurityInterceptor interceptor = new SecurityInterceptor();
+        interceptor.extension = extension;
+
+        PendingAuthorization first = pending(slow);
+        try {
+            interceptor.awaitAuthorizations(Arrays.asList(first, pending(denied)));
+            fail("Expected the authorization check to fail");
+        } catch (AuthorizationException expected) {
+            // The interceptor cancels the remaining checks once the invocation fails
+            first.cancel();
+        }
+
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test(timeout = 5000)
+    public void passesOnceEveryCheckIsGranted() {
+        FutureTask<Boolean> first = result(true);
+        FutureTask<Boolean> second = result(true);
+        first.run();
+        second.run();
+
+        SecurityInterceptor interceptor = new SecurityInterceptor();
+        interceptor.extension = extension;
+        interceptor.awaitAuthorizations(Arrays.asList(pending(first), pending(second)));
+    }
+
+    @Test(timeout = 5000)
+    public void waitsOnTheCallerOnceEveryWaiterIsBusy() {
+        extension.setMaxAuthorizationWaiters(1);
+
+        final FutureTask<Boolean> first = result(true);
+        final FutureTask<Boolean> second = result(true);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                second.run();
+                first.run();
+            }
+        }.start();
+
+        SecurityInterceptor interceptor = new SecurityInterceptor();
+        interceptor.extension = extension;
+        interceptor.awaitAuthorizations(Arrays.asList(pending(first), pending(second)));
+
+        assertTrue(first.isDone() && second.isDone());
+    }
+
+    @Test
+    public void cachedDenialFailsImmediately() {
+        SecurityInterceptor interceptor = new SecurityInterceptor();
+        interceptor.extension = extension;
+
+        try {
+            interceptor.awaitAuthorizations(Arrays.asList(pending(result(true)),
+                    extension.new PendingAuthorization(false)));
+            fail("Expected the authorization check to fail");
+        } catch (AuthorizationException expected) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.jboss.seam.security.management;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.RelationshipManager;
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroupHierarchyTest {
+    private final Map<String, List<Group>> parents = new HashMap<String, List<Group>>();
+    private final List<String> queried = new ArrayList<String>();
+
+    private final RelationshipManager relationshipManager = (RelationshipManager) Proxy.newProxyInstance(
+            RelationshipManager.class.getClassLoader(), new Class<?>[]{RelationshipManager.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("findAssociatedGroups".equals(method.getName()) && args[0] instanceof Group) {
+                        String name = ((Group) args[0]).getName();
+                        queried.add(name);
+                        return parents.containsKey(name) ? parents.get(name) : Collections.<Group>emptyList();
+                    }
+                    return null;
+                }
+            });
+
+    @Test
+    public void resolvesNestedGroupsBreadthFirst() throws Exception {
+        parent("team", "department", "project");
+        parent("department", "company");
+
+        assertEquals(Arrays.asList("team", "department", "project", "company"),
+                names(GroupHierarchy.resolveClosure(relationshipManager, groups("team"))));
+    }
+
+    @Test
+    public void queriesEachGroupOnceDespiteCycles() throws Exception {
+        parent("team", "department");
+        parent("department", "team", "company");
+        parent("project", "department");
+
+        assertEquals(Arrays.asList("team", "project", "department", "company"),
+                names(GroupHierarchy.resolveClosure(relationshipManager, groups("team", "project", "team"))));
+        assertEquals(Arrays.asList("team", "project", "department", "company"), queried);
+    }
+
+    @Test
+    public void findsTheParentsOfEachLevelAtOnce() throws Exception {
+        parent("team", "department");
+        parent("project", "department", "programme");
+        parent("department", "company");
+
+        final List<List<String>> levels = new ArrayList<List<String>>();
+        GroupHierarchy.ParentGroupFinder finder = new GroupHierarchy.ParentGroupFinder() {
+            public Collection<Group> findParentGroups(Collection<Group> groups) throws IdentityException {
+                levels.add(names(groups));
+                return GroupHierarchy.parentGroupFinder(relationshipManager).findParentGroups(groups);
+            }
+        };
+
+        assertEquals(Arrays.asList("team", "project", "department", "programme", "company"),
+                names(GroupHierarchy.resolveClosure(finder, groups("team", "project"))));
+        assertEquals(Arrays.asList(Arrays.asList("team", "project"), Arrays.asList("department", "programme"),
+                Arrays.asList("company")), levels);
+    }
+
+    @Test
+    public void distinguishesGroupTypes() throws Exception {
+        List<Group> direct = Arrays.<Group>asList(new SimpleGroup("sales", "GROUP"),
+                new SimpleGroup("sales", "ORGANIZATION"));
+
+        assertEquals(2, GroupHierarchy.resolveClosure(relationshipManager, direct).size());
+    }
+
+    private void parent(String group, String... parentNames) {
+        parents.put(group, groups(parentNames));
+    }
+
+    private static List<Group> groups(String... names) {
+        List<Group> groups = new ArrayList<Group>();
+        for (String name : names) {
+            groups.add(new SimpleGroup(name, "GROUP"));
+        }
+        return groups;
+    }
+
+    private static List<String> names(Collection<Group> groups) {
+        List<String> names = new ArrayList<String>();
+        for (Group group : groups) {
+            names.add(group.getName());
+        }
+        return names;
+    }
+}
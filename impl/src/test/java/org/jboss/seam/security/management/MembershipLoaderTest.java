@@ -0,0 +1,100 @@
+package org.jboss.seam.security.management;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.seam.security.BulkMembershipIdentity;
+import org.jboss.seam.security.Identity;
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.IdentitySession;
+import org.picketlink.idm.api.RelationshipManager;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.RoleManager;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+import org.picketlink.idm.impl.api.model.SimpleRole;
+import org.picketlink.idm.impl.api.model.SimpleRoleType;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+
+import static org.junit.Assert.assertEquals;
+
+public class MembershipLoaderTest {
+    private final List<String> calls = new ArrayList<String>();
+
+    private final IdentitySession session = stub(IdentitySession.class, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("getRoleManager".equals(method.getName())) {
+                return stub(RoleManager.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return Collections.<Role>singletonList(new SimpleRole(new SimpleRoleType("admin"),
+                                new SimpleUser("shane"), new SimpleGroup("team", "GROUP")));
+                    }
+                });
+            }
+            if ("getRelationshipManager".equals(method.getName())) {
+                return stub(RelationshipManager.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        boolean parentsOfTeam = args[0] instanceof Group && "team".equals(((Group) args[0]).getName());
+                        if (args[0] instanceof Group && !parentsOfTeam) return Collections.<Group>emptyList();
+                        return Collections.<Group>singletonList(
+                                new SimpleGroup(parentsOfTeam ? "department" : "team", "GROUP"));
+                    }
+                });
+            }
+            return null;
+        }
+    });
+
+    @Test
+    public void loadsDirectGroupsOnly() throws Exception {
+        MembershipLoader.load(session, new SimpleUser("shane"), identity(false));
+
+        assertEquals(Arrays.asList("addRole:admin:team:GROUP", "addGroup:team:GROUP"), calls);
+    }
+
+    @Test
+    public void loadsNestedGroupsWhenRequested() throws Exception {
+        MembershipLoader.load(session, new SimpleUser("shane"), identity(false), true);
+
+        assertEquals(Arrays.asList("addRole:admin:team:GROUP", "addGroup:team:GROUP", "addGroup:department:GROUP"),
+                calls);
+    }
+
+    @Test
+    public void addsMembershipsInBulkWhenSupported() throws Exception {
+        MembershipLoader.load(session, new SimpleUser("shane"), identity(true), true);
+
+        assertEquals(Arrays.asList("addRoles:1", "addGroups:2"), calls);
+    }
+
+    private Identity identity(boolean bulk) {
+        Class<?>[] interfaces = bulk ? new Class<?>[]{Identity.class, BulkMembershipIdentity.class} :
+                new Class<?>[]{Identity.class};
+
+        return (Identity) Proxy.newProxyInstance(Identity.class.getClassLoader(), interfaces,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("addRoles") || method.getName().equals("addGroups")) {
+                            calls.add(method.getName() + ":" + ((Collection<?>) args[0]).size());
+                        } else if (method.getName().startsWith("add")) {
+                            StringBuilder call = new StringBuilder(method.getName());
+                            for (Object arg : args) {
+                                call.append(':').append(arg);
+                            }
+                            calls.add(call.toString());
+                        }
+                        return method.getReturnType() == boolean.class ? true : null;
+                    }
+                });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
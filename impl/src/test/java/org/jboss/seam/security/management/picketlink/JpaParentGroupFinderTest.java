@@ -0,0 +1,124 @@
+package org.jboss.seam.security.management.picketlink;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.jboss.seam.security.FixedInstance;
+import org.jboss.solder.properties.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JpaParentGroupFinderTest {
+
+    public static class IdentityEntity {
+        String name;
+        String type;
+
+        IdentityEntity(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    @Entity(name = "Relationship")
+    public static class RelationshipEntity {
+        IdentityEntity from;
+        IdentityEntity to;
+        String relationshipType;
+    }
+
+    private final List<String> queries = new ArrayList<String>();
+    private final Map<String, Object> parameters = new HashMap<String, Object>();
+
+    private JpaParentGroupFinder finder;
+
+    @Before
+    public void setup() throws Exception {
+        JpaIdentityStoreConfiguration configuration = new JpaIdentityStoreConfiguration();
+        configuration.setIdentityClass(IdentityEntity.class);
+        configuration.setRelationshipClass(RelationshipEntity.class);
+        Map<String, org.jboss.solder.properties.Property<Object>> properties =
+                configuration.getIdentityModelProperties();
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_NAME,
+                Properties.<Object>createProperty(IdentityEntity.class.getDeclaredField("name")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_TYPE,
+                Properties.<Object>createProperty(IdentityEntity.class.getDeclaredField("type")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_RELATIONSHIP_FROM,
+                Properties.<Object>createProperty(RelationshipEntity.class.getDeclaredField("from")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_RELATIONSHIP_TO,
+                Properties.<Object>createProperty(RelationshipEntity.class.getDeclaredField("to")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_RELATIONSHIP_TYPE,
+                Properties.<Object>createProperty(RelationshipEntity.class.getDeclaredField("relationshipType")));
+
+        finder = new JpaParentGroupFinder();
+        finder.configuration = configuration;
+        finder.entityManagerInstance = new FixedInstance<EntityManager>(stub(EntityManager.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("createQuery".equals(method.getName())) {
+                            queries.add((String) args[0]);
+                            return createQuery();
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    @Test
+    public void findsTheParentsOfSeveralGroupsWithOneQuery() throws Exception {
+        assertTrue(finder.isAvailable());
+
+        Collection<Group> parents = finder.findParentGroups(Arrays.<Group>asList(new SimpleGroup("team", "GROUP"),
+                new SimpleGroup("project", "GROUP"), new SimpleGroup("sales", "ORGANIZATION")));
+
+        assertEquals(1, queries.size());
+        assertEquals("select distinct r.from from Relationship r where r.relationshipType = :membership and " +
+                "((r.to.name in (:groups0) and r.to.type = :groupType0) or " +
+                "(r.to.name in (:groups1) and r.to.type = :groupType1))", queries.get(0));
+        assertEquals("JBOSS_IDENTITY_MEMBERSHIP", parameters.get("membership"));
+        assertEquals(new HashSet<String>(Arrays.asList("team", "project")), parameters.get("groups0"));
+        assertEquals("GROUP", parameters.get("groupType0"));
+        assertEquals(new HashSet<String>(Arrays.asList("sales")), parameters.get("groups1"));
+        assertEquals("ORGANIZATION", parameters.get("groupType1"));
+
+        Group parent = parents.iterator().next();
+        assertEquals("department", parent.getName());
+        assertEquals("GROUP", parent.getGroupType());
+    }
+
+    private Query createQuery() {
+        return stub(Query.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("setParameter".equals(method.getName())) {
+                    parameters.put((String) args[0], args[1]);
+                    return proxy;
+                }
+                if ("getResultList".equals(method.getName())) {
+                    return Arrays.asList(new IdentityEntity("department", "GROUP"));
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,68 @@
+package org.jboss.seam.security.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class InvocationStatisticsTest {
+
+    @Test
+    public void countsDenialsAndFailuresSeparately() {
+        InvocationStatistics statistics = new AuthorizationMetrics().register(String.class, "authorizer");
+        statistics.record(500, false);
+        statistics.record(1500, true);
+        statistics.recordFailure(3000);
+
+        StatisticsSnapshot snapshot = statistics.snapshot();
+        assertEquals(3, snapshot.getInvocations());
+        assertEquals(1, snapshot.getDenials());
+        assertEquals(1, snapshot.getFailures());
+        assertEquals(5000, snapshot.getTotalNanos());
+        assertEquals(1, snapshot.getBuckets()[0]);
+        assertEquals(1, snapshot.getBuckets()[1]);
+        assertEquals(1, snapshot.getBuckets()[2]);
+    }
+
+    @Test
+    public void emptyUntilRecorded() {
+        InvocationStatistics statistics = new AuthorizationMetrics().register(String.class, "authorizer");
+        statistics.reset();
+
+        StatisticsSnapshot snapshot = statistics.snapshot();
+        assertEquals(0, snapshot.getInvocations());
+        assertEquals(0, snapshot.getPercentileNanos(0.99));
+    }
+
+    @Test
+    public void bindingTotalsCombineAuthorizers() {
+        AuthorizationMetrics metrics = new AuthorizationMetrics();
+        metrics.register(String.class, "first").record(100, true);
+        metrics.register(String.class, "second").recordFailure(100);
+
+        StatisticsSnapshot total = metrics.getBindingSnapshots().get(String.class.getName());
+        assertEquals(2, total.getInvocations());
+        assertEquals(1, total.getDenials());
+        assertEquals(1, total.getFailures());
+        assertEquals(1, metrics.getFailures());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInvocations());
+    }
+
+    @Test
+    public void decisionCacheLookupsAreOnlyCountedWhileEnabled() {
+        AuthorizationMetrics metrics = new AuthorizationMetrics();
+        metrics.recordDecisionCacheHit();
+
+        metrics.setEnabled(true);
+        metrics.recordDecisionCacheHit();
+        metrics.recordDecisionCacheHit();
+        metrics.recordDecisionCacheMiss();
+
+        assertEquals(2, metrics.getDecisionCacheHits());
+        assertEquals(1, metrics.getDecisionCacheMisses());
+
+        metrics.reset();
+        assertEquals(0, metrics.getDecisionCacheHits());
+    }
+}
@@ -0,0 +1,244 @@
+package org.jboss.seam.security.permission;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.jboss.seam.security.FixedInstance;
+import org.jboss.seam.security.annotations.permission.PermissionProperty;
+import org.jboss.seam.security.annotations.permission.PermissionPropertyType;
+import org.jboss.seam.security.annotations.permission.Permissions;
+import org.jboss.seam.security.management.picketlink.IdentitySessionProducer;
+import org.jboss.seam.security.management.picketlink.JpaIdentityStoreConfiguration;
+import org.jboss.solder.properties.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.Role;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+import org.picketlink.idm.impl.api.model.SimpleRole;
+import org.picketlink.idm.impl.api.model.SimpleRoleType;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JpaPermissionStoreTest {
+
+    public static class IdentityEntity {
+        String id;
+        String name;
+        String type;
+
+        IdentityEntity(String name, String type) {
+            this.id = name;
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    public static class PermissionEntity {
+        @PermissionProperty(PermissionPropertyType.IDENTITY)
+        IdentityEntity identity;
+        @PermissionProperty(PermissionPropertyType.RELATIONSHIP_TYPE)
+        String relationshipType;
+        @PermissionProperty(PermissionPropertyType.RELATIONSHIP_NAME)
+        String relationshipName;
+        @PermissionProperty(PermissionPropertyType.RESOURCE)
+        String resource;
+        @PermissionProperty(PermissionPropertyType.PERMISSION)
+        String permission;
+
+        PermissionEntity(String resource, IdentityEntity identity, String permission) {
+            this.resource = resource;
+            this.identity = identity;
+            this.permission = permission;
+        }
+    }
+
+    @Permissions({
+            @org.jboss.seam.security.annotations.permission.Permission(action = "read", mask = 1),
+            @org.jboss.seam.security.annotations.permission.Permission(action = "update", mask = 2),
+            @org.jboss.seam.security.annotations.permission.Permission(action = "delete", mask = 4)
+    })
+    public static class Document {
+    }
+
+    private final List<String> queries = new ArrayList<String>();
+    private final List<Map<String, Object>> parameters = new ArrayList<Map<String, Object>>();
+    private final List<PermissionEntity> rows = new ArrayList<PermissionEntity>();
+
+    private JpaPermissionStore store;
+
+    @Before
+    public void setup() throws Exception {
+        JpaIdentityStoreConfiguration configuration = new JpaIdentityStoreConfiguration();
+        configuration.setIdentityClass(IdentityEntity.class);
+        Map<String, org.jboss.solder.properties.Property<Object>> properties =
+                configuration.getIdentityModelProperties();
+        properties.put("IDENTITY_ID", Properties.<Object>createProperty(IdentityEntity.class.getDeclaredField("id")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_NAME,
+                Properties.<Object>createProperty(IdentityEntity.class.getDeclaredField("name")));
+        properties.put(JpaIdentityStoreConfiguration.PROPERTY_IDENTITY_TYPE,
+                Properties.<Object>createProperty(IdentityEntity.class.getDeclaredField("type")));
+
+        store = new JpaPermissionStore();
+        store.configuration = configuration;
+        store.identitySessionProducer = new IdentitySessionProducer();
+        store.identitySessionProducer.setUserIdentityType("PERSON");
+        store.identifierPolicy = new IdentifierPolicy() {
+            @Override
+            public String getIdentifier(Object target) {
+                return target instanceof Document ? "document:" + System.identityHashCode(target) :
+                        super.getIdentifier(target);
+            }
+        };
+        store.entityManagerInstance = new FixedInstance<EntityManager>(stub(EntityManager.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("createQuery".equals(method.getName())) {
+                            queries.add((String) args[0]);
+                            return createQuery();
+                        }
+                        return null;
+                    }
+                }));
+        store.setIdentityPermissionClass(PermissionEntity.class);
+        store.init();
+    }
+
+    @Test
+    public void matchesPlainActionsInTheQuery() {
+        assertTrue(store.hasPermission("customer:1", "read", new SimpleUser("shane"),
+                Collections.<Role>singleton(new SimpleRole(new SimpleRoleType("manager"),
+                        new SimpleUser("shane"), new SimpleGroup("head office", "ORGANIZATION"))),
+                Collections.<Group>singleton(new SimpleGroup("sales", "GROUP"))));
+
+        String query = queries.get(0);
+        assertTrue(query, query.startsWith("select count(p) from PermissionEntity p where p.resource = :resource"));
+        assertTrue(query, query.contains("p.identity.name = :user and p.identity.type = :userType"));
+        assertTrue(query, query.contains("(p.identity.name in (:groups0) and p.identity.type = :groupType0 and " +
+                "p.relationshipName is null)"));
+        assertTrue(query, query.contains("(p.identity.name = :roleGroup0 and p.identity.type = :roleGroupType0 and " +
+                "p.relationshipName = :role0)"));
+        assertTrue(query, query.contains("p.permission = :action or p.permission like :firstAction"));
+
+        Map<String, Object> params = parameters.get(0);
+        assertEquals("customer:1", params.get("resource"));
+        assertEquals("shane", params.get("user"));
+        assertEquals("PERSON", params.get("userType"));
+        assertEquals(Collections.singleton("sales"), params.get("groups0"));
+        assertEquals("head office", params.get("roleGroup0"));
+        assertEquals("ORGANIZATION", params.get("roleGroupType0"));
+        assertEquals("manager", params.get("role0"));
+        assertEquals("read", params.get("action"));
+        assertEquals("read,%", params.get("firstAction"));
+        assertEquals("%,read", params.get("lastAction"));
+        assertEquals("%,read,%", params.get("otherAction"));
+    }
+
+    @Test
+    public void matchesMaskedActionsByValue() {
+        assertTrue(store.hasPermission(new Document(), "update", new SimpleUser("shane"),
+                Collections.<Role>emptySet(), Collections.<Group>emptySet()));
+
+        assertTrue(queries.get(0), queries.get(0).endsWith("and p.permission in (:actions)"));
+        assertEquals(new HashSet<String>(Arrays.asList("2", "3", "6", "7")), parameters.get(0).get("actions"));
+    }
+
+    @Test
+    public void deniesUndefinedMaskedActionsWithoutQuerying() {
+        assertFalse(store.hasPermission(new Document(), "print", new SimpleUser("shane"),
+                Collections.<Role>emptySet(), Collections.<Group>emptySet()));
+        assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void matchesWildcardActionsInMemory() {
+        IdentityEntity shane = new IdentityEntity("shane", "USER");
+        rows.add(new PermissionEntity("customer:1", shane, "read,re%d"));
+
+        assertTrue(store.hasPermission("customer:1", "re%d", new SimpleUser("shane"),
+                Collections.<Role>emptySet(), Collections.<Group>emptySet()));
+        assertTrue(queries.get(0), queries.get(0).startsWith("select p.permission from"));
+        assertFalse(parameters.get(0).containsKey("action"));
+    }
+
+    @Test
+    public void listsPermissionsInChunks() {
+        IdentityEntity shane = new IdentityEntity("shane", "USER");
+        Set<Object> targets = new HashSet<Object>();
+        for (int i = 0; i < 5; i++) {
+            targets.add("customer:" + i);
+            rows.add(new PermissionEntity("customer:" + i, shane, i % 2 == 0 ? "read" : "read,delete"));
+            // Duplicate records for a recipient are consolidated
+            rows.add(new PermissionEntity("customer:" + i, shane, "update"));
+        }
+
+        store.setMaxTargetsPerQuery(2);
+        List<Permission> permissions = store.listPermissions(targets, "delete");
+
+        assertEquals(3, queries.size());
+        Set<Object> queried = new HashSet<Object>();
+        for (Map<String, Object> params : parameters) {
+            Collection<?> chunk = (Collection<?>) params.get("targets");
+            assertTrue(chunk.size() <= 2);
+            queried.addAll(chunk);
+        }
+        assertEquals(targets, queried);
+
+        Set<Object> resources = new HashSet<Object>();
+        for (Permission permission : permissions) {
+            assertEquals("shane", permission.getIdentity().getName());
+            resources.add(permission.getResource());
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList("customer:1", "customer:3")), resources);
+    }
+
+    private Query createQuery() {
+        final Map<String, Object> params = new HashMap<String, Object>();
+        parameters.add(params);
+
+        return stub(Query.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("setParameter".equals(method.getName())) {
+                    params.put((String) args[0], args[1]);
+                    return proxy;
+                }
+                if ("getSingleResult".equals(method.getName())) {
+                    return 1L;
+                }
+                if ("getResultList".equals(method.getName())) {
+                    List<Object> results = new ArrayList<Object>();
+                    for (PermissionEntity row : rows) {
+                        if (row.resource.equals(params.get("resource"))) {
+                            results.add(row.permission);
+                        } else if (params.containsKey("targets") &&
+                                ((Collection<?>) params.get("targets")).contains(row.resource)) {
+                            results.add(row);
+                        }
+                    }
+                    return results;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,56 @@
+package org.jboss.seam.security.permission;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalPermissionInvalidationChannelTest {
+    private final LocalPermissionInvalidationChannel first = new LocalPermissionInvalidationChannel();
+    private final LocalPermissionInvalidationChannel second = new LocalPermissionInvalidationChannel();
+
+    private final List<PermissionInvalidation> receivedByFirst = new ArrayList<PermissionInvalidation>();
+    private final List<PermissionInvalidation> receivedBySecond = new ArrayList<PermissionInvalidation>();
+
+    @After
+    public void stop() {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void deliversToOtherChannelsOnly() {
+        first.start(collect(receivedByFirst));
+        second.start(collect(receivedBySecond));
+
+        first.publish(new PermissionInvalidation("customer:1", "shane"));
+        second.publish(new PermissionInvalidation("customer:2", null));
+
+        assertEquals(Collections.singletonList(new PermissionInvalidation("customer:2", null)), receivedByFirst);
+        assertEquals(Collections.singletonList(new PermissionInvalidation("customer:1", "shane")), receivedBySecond);
+    }
+
+    @Test
+    public void stoppedChannelsNoLongerReceive() {
+        first.start(collect(receivedByFirst));
+        second.start(collect(receivedBySecond));
+        second.stop();
+
+        first.publish(new PermissionInvalidation("customer:1", "shane"));
+        assertTrue(receivedBySecond.isEmpty());
+    }
+
+    private static PermissionInvalidationChannel.Listener collect(final List<PermissionInvalidation> received) {
+        return new PermissionInvalidationChannel.Listener() {
+            public void invalidated(Collection<PermissionInvalidation> invalidations) {
+                received.addAll(invalidations);
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package org.jboss.seam.security.permission;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MulticastPermissionInvalidationChannelTest {
+    private final MulticastPermissionInvalidationChannel sender = new MulticastPermissionInvalidationChannel();
+    private final MulticastPermissionInvalidationChannel receiver = new MulticastPermissionInvalidationChannel();
+
+    @Test
+    public void decodesInvalidationsFromOtherNodes() throws Exception {
+        List<PermissionInvalidation> invalidations = Arrays.asList(
+                new PermissionInvalidation("customer:1", "shane"),
+                new PermissionInvalidation("customer:2", null));
+
+        List<byte[]> datagrams = sender.encode(invalidations);
+        assertEquals(1, datagrams.size());
+
+        byte[] data = datagrams.get(0);
+        assertEquals(invalidations, receiver.decode(data, 0, data.length));
+    }
+
+    @Test
+    public void ignoresOwnAndForeignDatagrams() throws Exception {
+        byte[] data = sender.encode(Arrays.asList(new PermissionInvalidation("customer:1", null))).get(0);
+        assertNull(sender.decode(data, 0, data.length));
+
+        byte[] foreign = "not an invalidation".getBytes("UTF-8");
+        assertNull(receiver.decode(foreign, 0, foreign.length));
+    }
+
+    @Test
+    public void splitsLargeBatchesAcrossDatagrams() throws Exception {
+        List<PermissionInvalidation> invalidations = new ArrayList<PermissionInvalidation>();
+        for (int i = 0; i < 200; i++) {
+            invalidations.add(new PermissionInvalidation("org.example.Customer:" + i, "user" + i));
+        }
+
+        List<byte[]> datagrams = sender.encode(invalidations);
+        assertTrue(datagrams.size() > 1);
+
+        List<PermissionInvalidation> decoded = new ArrayList<PermissionInvalidation>();
+        for (byte[] data : datagrams) {
+            assertTrue(data.length <= 1400);
+            decoded.addAll(receiver.decode(data, 0, data.length));
+        }
+        assertEquals(invalidations, decoded);
+    }
+}
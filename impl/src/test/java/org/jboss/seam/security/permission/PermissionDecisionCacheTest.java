@@ -0,0 +1,99 @@
+package org.jboss.seam.security.permission;
+
+import java.util.Collections;
+
+import org.jboss.seam.security.FixedInstance;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PermissionDecisionCacheTest {
+    private PermissionCacheControl control;
+    private PermissionDecisionCache cache;
+
+    @Before
+    public void setup() {
+        control = new PermissionCacheControl();
+        control.setEnabled(true);
+
+        cache = new PermissionDecisionCache();
+        cache.control = control;
+        cache.identifierPolicy = new IdentifierPolicy();
+    }
+
+    @Test
+    public void returnsCachedDecisions() {
+        assertNull(cache.get("customer:1", "read"));
+        cache.put("customer:1", "read", true, control.getGeneration());
+        cache.put("customer:1", "delete", false, control.getGeneration());
+
+        assertEquals(Boolean.TRUE, cache.get("customer:1", "read"));
+        assertEquals(Boolean.FALSE, cache.get("customer:1", "delete"));
+        assertEquals(2, control.getHits());
+        assertEquals(1, control.getMisses());
+    }
+
+    @Test
+    public void invalidatesOnlyTheChangedResource() {
+        cache.put("customer:1", "read", true, control.getGeneration());
+        cache.put("customer:2", "read", true, control.getGeneration());
+
+        control.permissionsChanged(new PermissionInvalidation("customer:1", "shane"));
+
+        assertNull(cache.get("customer:1", "read"));
+        assertEquals(Boolean.TRUE, cache.get("customer:2", "read"));
+
+        // Decisions made after the invalidation are cached again
+        cache.put("customer:1", "read", false, control.getGeneration());
+        assertEquals(Boolean.FALSE, cache.get("customer:1", "read"));
+    }
+
+    @Test
+    public void invalidatesResourcesChangedOnOtherNodes() {
+        final PermissionInvalidationChannel.Listener[] listener = new PermissionInvalidationChannel.Listener[1];
+        control.setChannelClass(PermissionInvalidationChannel.class);
+        control.channels = new FixedInstance<PermissionInvalidationChannel>(
+                new PermissionInvalidationChannel() {
+                    public void start(Listener l) {
+                        listener[0] = l;
+                    }
+
+                    public void publish(PermissionInvalidation invalidation) {
+                    }
+
+                    public void stop() {
+                    }
+                });
+        control.startChannel();
+
+        cache.put("customer:1", "read", true, control.getGeneration());
+        cache.put("customer:2", "read", true, control.getGeneration());
+        listener[0].invalidated(Collections.singletonList(new PermissionInvalidation("customer:2", null)));
+
+        assertEquals(Boolean.TRUE, cache.get("customer:1", "read"));
+        assertNull(cache.get("customer:2", "read"));
+        assertEquals(1, control.getRemoteInvalidations());
+    }
+
+    @Test
+    public void invalidatesEverythingWhenTooManyResourcesChange() {
+        control.setMaxInvalidatedResources(2);
+        cache.put("customer:1", "read", true, control.getGeneration());
+
+        control.invalidate("customer:2");
+        control.invalidate("customer:3");
+        assertEquals(Boolean.TRUE, cache.get("customer:1", "read"));
+
+        control.invalidate("customer:4");
+        assertNull(cache.get("customer:1", "read"));
+    }
+
+    @Test
+    public void expiresDecisions() {
+        control.setTimeToLive(-1);
+        cache.put("customer:1", "read", true, control.getGeneration());
+        assertNull(cache.get("customer:1", "read"));
+    }
+}
@@ -0,0 +1,194 @@
+package org.jboss.seam.security.permission;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionMapperTest {
+    private final List<String> calls = new ArrayList<String>();
+
+    private final Set<Bean<?>> beans = new LinkedHashSet<Bean<?>>();
+    private final Map<Bean<?>, PermissionResolver> references = new HashMap<Bean<?>, PermissionResolver>();
+    private final List<PermissionResolver> dependentInstances = new ArrayList<PermissionResolver>();
+    private final List<Object> releasedContexts = new ArrayList<Object>();
+
+    /**
+     * Grants the permission for strings starting with its name, and for numbers divisible by its divisor
+     */
+    private class TestResolver implements CostAwarePermissionResolver {
+        private final String name;
+        private final int cost;
+        private final Class<?> supported;
+        private final int divisor;
+
+        TestResolver(String name, int cost, Class<?> supported, int divisor) {
+            this.name = name;
+            this.cost = cost;
+            this.supported = supported;
+            this.divisor = divisor;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public boolean supports(Class<?> targetClass) {
+            return supported == null || supported == targetClass;
+        }
+
+        public boolean hasPermission(Object resource, String permission) {
+            calls.add(name);
+            return grants(resource);
+        }
+
+        public void filterSetByAction(Set<Object> resources, String permission) {
+            calls.add(name + ":" + resources.size());
+            for (Iterator<Object> i = resources.iterator(); i.hasNext(); ) {
+                if (grants(i.next())) i.remove();
+            }
+        }
+
+        private boolean grants(Object resource) {
+            return resource instanceof String ? ((String) resource).startsWith(name) :
+                    divisor > 0 && ((Number) resource).intValue() % divisor == 0;
+        }
+    }
+
+    @Test
+    public void consultsSupportingResolversCheapestFirst() {
+        PermissionMapper mapper = mapper(new TestResolver("rules", 200, null, 0),
+                new TestResolver("persistent", 50, null, 0),
+                new TestResolver("numbers", 10, Integer.class, 0));
+
+        assertFalse(mapper.resolvePermission("customer", "read"));
+        assertEquals(Arrays.asList("persistent", "rules"), calls);
+
+        // The first resolver granting the permission ends the chain
+        calls.clear();
+        assertTrue(mapper.resolvePermission("persistent:1", "read"));
+        assertEquals(Arrays.asList("persistent"), calls);
+    }
+
+    @Test
+    public void filtersEachClassOnceAndKeepsOnlyPermittedTargets() {
+        PermissionMapper mapper = mapper(new TestResolver("a", 50, null, 2), new TestResolver("b", 100, null, 3));
+
+        List<Object> targets = new ArrayList<Object>(Arrays.<Object>asList(
+                "apple", 1, "banana", 2, "cherry", 3, "apple", 5, 6));
+        mapper.filterByPermission(targets, "read");
+
+        assertEquals(Arrays.<Object>asList("apple", "banana", 2, 3, "apple", 6), targets);
+        // Duplicates are checked once, and the second resolver only sees the targets the first denied
+        assertEquals(Arrays.asList("a:3", "b:2", "a:5", "b:3"), calls);
+    }
+
+    @Test
+    public void filtersClassesInParallel() throws Exception {
+        PermissionMapper mapper = mapper(new TestResolver("a", 50, null, 2));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        mapper.setExecutor(executor);
+        mapper.setParallelThreshold(1);
+
+        try {
+            List<Object> targets = new ArrayList<Object>(Arrays.<Object>asList("apple", 1, "banana", 2, 3L));
+            mapper.filterByPermission(targets, "read");
+
+            assertEquals(Arrays.<Object>asList("apple", 2), targets);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void createsDependentResolversForEachUse() {
+        beans.add(bean(Dependent.class));
+        PermissionMapper mapper = mapper();
+
+        assertTrue(mapper.resolvePermission("dependent:1", "read"));
+        assertTrue(mapper.resolvePermission("dependent:2", "read"));
+
+        // One instance to read the cost, one to check support for strings, and one for each check
+        assertEquals(4, dependentInstances.size());
+        assertEquals(4, releasedContexts.size());
+        assertEquals(Arrays.asList("dependent", "dependent"), calls);
+    }
+
+    private PermissionMapper mapper(PermissionResolver... resolvers) {
+        for (PermissionResolver resolver : resolvers) {
+            Bean<?> bean = bean(ApplicationScoped.class);
+            beans.add(bean);
+            references.put(bean, resolver);
+        }
+
+        PermissionMapper mapper = new PermissionMapper();
+        mapper.manager = stub(BeanManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getBeans".equals(method.getName())) {
+                    return beans;
+                } else if ("isNormalScope".equals(method.getName())) {
+                    return !Dependent.class.equals(args[0]);
+                } else if ("createCreationalContext".equals(method.getName())) {
+                    return creationalContext();
+                } else if ("getReference".equals(method.getName())) {
+                    PermissionResolver reference = references.get(args[0]);
+                    if (reference == null) {
+                        reference = new TestResolver("dependent", 50, null, 0);
+                        dependentInstances.add(reference);
+                    }
+                    return reference;
+                }
+                return null;
+            }
+        });
+        return mapper;
+    }
+
+    private CreationalContext<?> creationalContext() {
+        return stub(CreationalContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("release".equals(method.getName())) {
+                    releasedContexts.add(proxy);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Bean<?> bean(final Class<? extends Annotation> scope) {
+        return stub(Bean.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getScope".equals(method.getName())) return scope;
+                if ("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+                if ("equals".equals(method.getName())) return proxy == args[0];
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,63 @@
+package org.jboss.seam.security.permission;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.seam.security.Identity;
+import org.junit.Test;
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.impl.api.model.SimpleGroup;
+import org.picketlink.idm.impl.api.model.SimpleUser;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+
+import static org.junit.Assert.assertEquals;
+
+public class PersistentPermissionResolverTest {
+
+    @Test
+    public void filtersTargetsGrantedToTheUserOrTheirGroups() {
+        final List<Permission> permissions = Arrays.asList(
+                new Permission("customer:1", "read", new SimpleIdentityObject("shane",
+                        new SimpleIdentityObjectType("USER"))),
+                new Permission("customer:2", "read", new SimpleIdentityObject("sales",
+                        new SimpleIdentityObjectType("GROUP"))),
+                new Permission("customer:3", "read", new SimpleIdentityObject("sales",
+                        new SimpleIdentityObjectType("ORGANIZATION"))),
+                new Permission("customer:4", "read", new SimpleIdentityObject("admin",
+                        new SimpleIdentityObjectType("GROUP"))));
+
+        PersistentPermissionResolver resolver = new PersistentPermissionResolver();
+        resolver.identity = stub(Identity.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("isLoggedIn".equals(method.getName())) return true;
+                if ("getUser".equals(method.getName())) return new SimpleUser("shane");
+                if ("getGroups".equals(method.getName())) {
+                    return Collections.<Group>singleton(new SimpleGroup("sales", "GROUP"));
+                }
+                return null;
+            }
+        });
+        resolver.permissionStore = stub(PermissionStore.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "listPermissions".equals(method.getName()) ? permissions : null;
+            }
+        });
+
+        Set<Object> targets = new HashSet<Object>(Arrays.<Object>asList(
+                "customer:1", "customer:2", "customer:3", "customer:4"));
+        resolver.filterSetByAction(targets, "read");
+
+        assertEquals(new HashSet<Object>(Arrays.<Object>asList("customer:3", "customer:4")), targets);
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}